@@ -1,6 +1,4 @@
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.function.ToIntFunction;
 
 public class BSIISudokuSolver extends BSISudokuSolver {
 
@@ -10,54 +8,17 @@ public class BSIISudokuSolver extends BSISudokuSolver {
 
   @Override
   public boolean solve() {
+    this.visit();
     if (!this.isComplete()) {
       /* Select unassigned variable */
-      final Variable currVar = this.unassignedVariables.stream()
-          .min((v1, v2) -> this.compare(v1, v2)).get();
+      final Variable currVar = this.nextVariable();
       this.unassignedVariables.remove(currVar);
-      /* List for consistent values */
-      final List<Integer> values = new ArrayList<>();
-      /* Add all consistent values */
-      for (int value = 1; value <= 9; value++) {
-        if (this.isConsistent(currVar, value)) {
-          values.add(value);
-        }
-      }
-      /* Sort according to least constraining value */
-      Collections.sort(values, (val1, val2) -> {
-        /* **************************** Sorting *****************************/
-        int cnt1 = 0;
-        int cnt2 = 0;
-        /* Try 1st value */
-        this.setValue(currVar, val1);
-        for (final Variable var1 : this.unassignedVariables) {
-          if (this.isRelated(var1, currVar)) {
-            for (int v1 = 1; v1 <= 9; v1++) {
-              if (this.isConsistent(var1, v1)) {
-                cnt1++;
-              }
-            }
-          }
-        }
-        /* Try 2nd value */
-        this.setValue(currVar, val2);
-        for (final Variable var2 : this.unassignedVariables) {
-          if (this.isRelated(var2, currVar)) {
-            for (int v2 = 1; v2 <= 9; v2++) {
-              if (this.isConsistent(var2, v2)) {
-                cnt2++;
-              }
-            }
-          }
-        }
-        /* Restore value */
-        this.setValue(currVar, 0);
-        /* Compare reverse */
-        return Integer.compare(cnt2, cnt1);
-        /* **************************** Sorting *****************************/
-      });
+      /* Consistent values, sorted according to least constraining value */
+      final int[] values = new int[9];
+      final int count = this.nextValues(currVar, values);
       /* After sorting try each value */
-      for (final int value : values) {
+      for (int i = 0; i < count; i++) {
+        final int value = values[i];
         this.setValue(currVar, value);
         /* Solve recursively */
         final boolean solved = this.solve();
@@ -70,11 +31,64 @@ public class BSIISudokuSolver extends BSISudokuSolver {
       }
       /* none of the values in the domain worked put back this value as unassigned, backtrack */
       this.unassignedVariables.add(currVar);
-      backTracks++;
+      this.backtrack();
       return false;
     } else {
       return true;
     }
   }
 
+  @Override
+  public int nextValues(final Variable var, final int[] values) {
+    return this.orderValues(var, this.candidates(var), this::candidates, values);
+  }
+
+  /**
+   * Orders values of a variable by least constraining value, i.e. by decreasing number of values
+   * left to the related unassigned variables once the value is assigned, ties in increasing order.
+   *
+   * <p>
+   * Assigning v removes v, and only v, from every related variable that still has it, so the values
+   * left are the same total minus the number of related variables supporting v. The support of all
+   * values is therefore counted in one pass over the related variables, instead of rescanning them
+   * for both values of every comparison.
+   *
+   * @param currVar
+   *          the variable to assign, already removed from the unassigned variables.
+   * @param mask
+   *          the values to order, bit v set for value v.
+   * @param remaining
+   *          the values still possible for an unassigned variable, as a bit mask.
+   * @param values
+   *          receives the ordered values.
+   * @return the number of values.
+   */
+  protected int orderValues(final Variable currVar, final int mask,
+      final ToIntFunction<Variable> remaining, final int[] values) {
+    /* Number of related unassigned variables that can still take each value */
+    final int[] support = new int[10];
+    for (final Variable var : this.unassignedVariables) {
+      if (this.isRelated(var, currVar)) {
+        int live = remaining.applyAsInt(var) & mask;
+        while (live != 0) {
+          support[Integer.numberOfTrailingZeros(live)]++;
+          live &= live - 1;
+        }
+      }
+    }
+    /* Insertion sort by increasing support, stable so ties stay in increasing order */
+    int count = 0;
+    for (int v = 1; v <= 9; v++) {
+      if ((mask & (1 << v)) != 0) {
+        int j = count++;
+        while ((j > 0) && (support[values[j - 1]] > support[v])) {
+          values[j] = values[j - 1];
+          j--;
+        }
+        values[j] = v;
+      }
+    }
+    return count;
+  }
+
 }
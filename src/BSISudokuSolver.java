@@ -14,10 +14,10 @@ public class BSISudokuSolver extends SudokuSolver {
 
   @Override
   public boolean solve() {
+    this.visit();
     if (!this.isComplete()) {
       /* Select unassigned variable */
-      final Variable var = this.unassignedVariables.stream().min((v1, v2) -> this.compare(v1, v2))
-          .get();
+      final Variable var = this.nextVariable();
       this.unassignedVariables.remove(var);
       /* Check all values in domain */
       for (int value = 1; value <= 9; value++) {
@@ -36,28 +36,30 @@ public class BSISudokuSolver extends SudokuSolver {
       }
       /* none of the values in the domain worked put back this value as unassigned, backtrack */
       this.unassignedVariables.add(var);
-      backTracks++;
+      this.backtrack();
       return false;
     } else {
       return true;
     }
   }
 
+  /** Returns the unassigned variable with minimum remaining values, then maximum degree. */
+  @Override
+  public Variable nextVariable() {
+    return this.unassignedVariables.stream().min((v1, v2) -> this.compare(v1, v2)).orElse(null);
+  }
+
+  @Override
+  public void descend(final Variable var, final int value) {
+    this.setValue(var, value);
+    this.unassignedVariables.remove(var);
+  }
+
   /** Compares two variables according to minimum remaining values. */
   public int compare(final Variable v1, final Variable v2) {
-    /* Remaining values for variables */
-    int rv1 = 0;
-    int rv2 = 0;
-    /* Loop over all values in domain */
-    for (int i = 1; i <= 9; i++) {
-      /* Count consistent values of both */
-      if (this.isConsistent(v1, i)) {
-        rv1++;
-      }
-      if (this.isConsistent(v2, i)) {
-        rv2++;
-      }
-    }
+    /* Remaining values for variables, i.e. their consistent values */
+    final int rv1 = Integer.bitCount(this.candidates(v1));
+    final int rv2 = Integer.bitCount(this.candidates(v2));
     /* If one has less consistent values, that is smaller */
     if (Integer.compare(rv1, rv2) != 0) {
       return Integer.compare(rv1, rv2);
@@ -1,5 +1,4 @@
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -11,6 +10,8 @@ import java.util.Set;
 public class BSMACSudokuSolver extends BSIISudokuSolver {
 
 	Map<Variable, Set<Integer>> domains;
+	/* Domains of the node reached by descend, reduced by arc consistency as in solve */
+	private Map<Variable, Set<Integer>> current;
 
 	/** Utility function to clone domains, for passing down recursion. */
 	private Map<Variable, Set<Integer>> domainClone(Map<Variable, Set<Integer>> domainOriginal) {
@@ -35,6 +36,7 @@ public class BSMACSudokuSolver extends BSIISudokuSolver {
 				}
 			}
 		}
+		this.current = this.domains;
 	}
 
 	@Override
@@ -43,55 +45,19 @@ public class BSMACSudokuSolver extends BSIISudokuSolver {
 	}
 
 	private boolean solve(Map<Variable, Set<Integer>> currDomain) {
+		this.visit();
 		if (!this.isComplete()) {
 			/* Select unassigned variable */
-			final Variable currVar = this.unassignedVariables.stream()
-				.min((v1, v2) -> this.compare(v1, v2))
-				.get();
+			final Variable currVar = this.nextVariable();
 			this.unassignedVariables.remove(currVar);
-			/* List for consistent values */
-			final List<Integer> values = new ArrayList<>();
-			/* Add all consistent values */
-			for (int value : currDomain.get(currVar)) {
-				if (this.isConsistent(currVar, value)) {
-					values.add(value);
-				}
-			}
-			/* Sort according to least constraining value */
-			Collections.sort(values, (val1, val2) -> {
-				/* **************************** Sorting *****************************/
-				int cnt1 = 0;
-				int cnt2 = 0;
-				/* Try 1st value */
-				this.setValue(currVar, val1);
-				for (final Variable var1 : this.unassignedVariables) {
-					if (this.isRelated(var1, currVar)) {
-						for (final int v1 : currDomain.get(var1)) {
-							if (this.isConsistent(var1, v1)) {
-								cnt1++;
-							}
-						}
-					}
-				}
-				/* Try 2nd value */
-				this.setValue(currVar, val2);
-				for (final Variable var2 : this.unassignedVariables) {
-					if (this.isRelated(var2, currVar)) {
-						for (final int v2 : currDomain.get(var2)) {
-							if (this.isConsistent(var2, v2)) {
-								cnt2++;
-							}
-						}
-					}
-				}
-				/* Restore value */
-				this.setValue(currVar, 0);
-				/* Compare reverse */
-				return Integer.compare(cnt2, cnt1);
-				/* **************************** Sorting *****************************/
-			});
+			/* Consistent values, sorted according to least constraining value */
+			final int[] values = new int[9];
+			final int count = this.orderValues(currVar,
+					domainMask(currDomain.get(currVar)) & this.candidates(currVar),
+					var -> domainMask(currDomain.get(var)) & this.candidates(var), values);
 			/* After sorting try each value */
-			for (final int value : values) {
+			for (int i = 0; i < count; i++) {
+				final int value = values[i];
 				this.setValue(currVar, value);
 				/* Clone domains to pass down recursion */
 				Map<Variable, Set<Integer>> newDomains = domainClone(currDomain);
@@ -115,32 +81,46 @@ public class BSMACSudokuSolver extends BSIISudokuSolver {
 			}
 			/* none of the values in the domain worked put back this value as unassigned, backtrack */
 			this.unassignedVariables.add(currVar);
-			backTracks++;
+			this.backtrack();
 			return false;
 		} else {
 			return true;
 		}
 	}
 
+	/** Orders the values of the current domain by least constraining value, as solve does. */
 	@Override
-	public int compare(final Variable v1, final Variable v2) {
-		/* Remaining values for variables */
-		int rv1 = 0;
-		int rv2 = 0;
-		/* Loop over all values in domain */
-		for (final int i : this.domains.get(v1)) {
-			if (this.isConsistent(v1, i)) {
-				/* Count consistent values */
-				rv1++;
-			}
-		}
-		/* Loop over all values in domain */
-		for (final int i : this.domains.get(v2)) {
-			if (this.isConsistent(v2, i)) {
-				/* Count consistent values */
-				rv2++;
-			}
+	public int nextValues(final Variable var, final int[] values) {
+		return this.orderValues(var, domainMask(this.current.get(var)) & this.candidates(var),
+				v -> domainMask(this.current.get(v)) & this.candidates(v), values);
+	}
+
+	/** Assigns a value and maintains arc consistency on a copy of the current domains. */
+	@Override
+	public void descend(final Variable var, final int value) {
+		super.descend(var, value);
+		final Map<Variable, Set<Integer>> newDomains = domainClone(this.current);
+		newDomains.put(var, new HashSet<>());
+		newDomains.get(var)
+			.add(value);
+		this.maintainArcConsistency(var, newDomains);
+		this.current = newDomains;
+	}
+
+	/** Returns a domain as a bit mask, bit v set for each value v. */
+	private static int domainMask(final Set<Integer> domain) {
+		int mask = 0;
+		for (final int v : domain) {
+			mask |= 1 << v;
 		}
+		return mask;
+	}
+
+	@Override
+	public int compare(final Variable v1, final Variable v2) {
+		/* Remaining values for variables, i.e. the consistent values of their domains */
+		final int rv1 = Integer.bitCount(domainMask(this.domains.get(v1)) & this.candidates(v1));
+		final int rv2 = Integer.bitCount(domainMask(this.domains.get(v2)) & this.candidates(v2));
 		/* If one has less consistent values, that is smaller */
 		if (Integer.compare(rv1, rv2) != 0) {
 			return Integer.compare(rv1, rv2);
@@ -164,6 +144,10 @@ public class BSMACSudokuSolver extends BSIISudokuSolver {
 
 	private Map<Variable, Set<Integer>> maintainArcConsistency(final Variable varI,
 			Map<Variable, Set<Integer>> currDomains) {
+		final SolverEvents.Propagation event = new SolverEvents.Propagation();
+		event.begin();
+		int revised = 0;
+		int reduced = 0;
 		/* Initialize arcs and domains */
 		final Queue<VariablesPair> arcs = new LinkedList<>();
 
@@ -178,8 +162,10 @@ public class BSMACSudokuSolver extends BSIISudokuSolver {
 		while (!arcs.isEmpty()) {
 			/* Remove pair (varNeighbour, var) */
 			final VariablesPair pair = arcs.poll();
+			revised++;
 			/* Check if pair.val1, i.e. varNeightbour is arc consistent with pair.val2, i.e. var */
 			if (this.reviseDomains(pair.var1, pair.var2, currDomains)) {
+				reduced++;
 				/* Revised some domains */
 				for (final Variable varK : this.unassignedVariables) {
 					if (this.isRelated(varK, pair.var1)) {
@@ -193,14 +179,25 @@ public class BSMACSudokuSolver extends BSIISudokuSolver {
 		}
 
 		/* Check any empty domain */
+		boolean wipeOut = false;
 		for (final Set<Integer> s : currDomains.values()) {
 			if (s.isEmpty()) {
-				return null;
+				wipeOut = true;
+				break;
 			}
 		}
 
+		event.end();
+		if (event.shouldCommit()) {
+			event.variable = varI.toString();
+			event.arcs = revised;
+			event.reductions = reduced;
+			event.wipeOut = wipeOut;
+			event.commit();
+		}
+
 		/* No empty domain */
-		return currDomains;
+		return wipeOut ? null : currDomains;
 	}
 
 	/**
@@ -11,6 +11,7 @@ public class BSSudokuSovler extends SudokuSolver {
 
   @Override
   public boolean solve() {
+    this.visit();
     if (!this.isComplete()) {
       /* Select unassigned variable */
       final Variable var = this.unassignedVariables.removeFirst();
@@ -31,7 +32,7 @@ public class BSSudokuSovler extends SudokuSolver {
       }
       /* none of the values in the domain worked put back this value as unassigned, backtrack */
       this.unassignedVariables.addFirst(var);
-      backTracks++;
+      this.backtrack();
       return false;
     } else {
       /* Complete assignment */
@@ -39,6 +40,17 @@ public class BSSudokuSovler extends SudokuSolver {
     }
   }
 
+  @Override
+  public Variable nextVariable() {
+    return this.unassignedVariables.peekFirst();
+  }
+
+  @Override
+  public void descend(final Variable var, final int value) {
+    this.setValue(var, value);
+    this.unassignedVariables.remove(var);
+  }
+
   @Override
   public boolean isComplete() {
     /*
@@ -0,0 +1,390 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Solves every puzzle of an input file into an output file, in input order, with checkpoints.
+ *
+ * <p>
+ * Puzzles are solved on a pool of threads and may complete out of order; results are written in
+ * input order as soon as all earlier ones are available. Every {@code checkpointInterval} written
+ * solutions the output is made durable and the number of consumed input records together with the
+ * committed output position is written atomically to {@code <output>.checkpoint}, along with the
+ * path, size and modification time of the input, the range solved and an optional {@link #tag}
+ * such as the engine. A restarted run that finds this file truncates the output to the committed
+ * position and skips the consumed input, so it continues exactly where the previous run stopped;
+ * if the input, the range or the tag is not the same, it refuses to resume rather than skip records
+ * of another input. The checkpoint is removed once the whole input has been solved. Compressed
+ * ({@code .sdz}) outputs are only valid once closed, so they are written without checkpoints.
+ *
+ * <p>
+ * With {@link #prioritize}, the puzzles waiting for a thread are started in order of decreasing
+ * cost instead of input order, longest first, from a larger window; the output order is the same.
+ * Costs are estimated on the pool, ahead of the solves.
+ *
+ * <p>
+ * A {@link BatchEngine} is given the puzzles a batch at a time instead, e.g. to propagate them in
+ * lockstep; batches are solved in input order.
+ */
+public class BatchRunner {
+
+  // ================================================================================
+  // Internal Classes
+  // ================================================================================
+  /** Solves a single puzzle. */
+  public interface Engine {
+    /** Returns the row-rasterized solution, or {@code null} if the puzzle could not be solved. */
+    String solve(String puzzle) throws Exception;
+  }
+
+  /** Solves several puzzles at once. */
+  public interface BatchEngine {
+    /**
+     * Returns the row-rasterized solutions in the order of the puzzles, {@code null} for a puzzle
+     * that could not be solved.
+     */
+    String[] solve(String[] puzzles) throws Exception;
+  }
+
+  // ================================================================================
+  // Static Variables
+  // ================================================================================
+  public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+  public static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+  // ================================================================================
+  // Other Variables
+  // ================================================================================
+  private final String input;
+  private final String output;
+  /* Range of the input, see PuzzleFile.split */
+  private final long from;
+  private final long to;
+  private final Path checkpoint;
+  private final int threads;
+  private final int checkpointInterval;
+  /* Compressed outputs are only complete once closed */
+  private final boolean checkpoints;
+
+  /** Estimated cost of a puzzle, {@code null} to solve in input order. */
+  private ToDoubleFunction<String> cost;
+  /** Also identifies the checkpoint, e.g. the engine; {@code null} for none. */
+  private String tag;
+
+  /** Input records already solved by previous runs. */
+  private long resumedFrom;
+  /** Solutions in the output. */
+  private long records;
+
+  public BatchRunner(final String pinput, final String poutput, final int pthreads,
+      final int pcheckpointInterval) {
+    this(pinput, poutput, pthreads, pcheckpointInterval, 0, -1);
+  }
+
+  /**
+   * Solves only the range of the input between two boundaries returned by
+   * {@link PuzzleFile#split}; a negative {@code pto} means the end of the input.
+   */
+  public BatchRunner(final String pinput, final String poutput, final int pthreads,
+      final int pcheckpointInterval, final long pfrom, final long pto) {
+    this.input = pinput;
+    this.output = poutput;
+    this.from = pfrom;
+    this.to = pto;
+    this.checkpoint = Paths.get(poutput + CHECKPOINT_SUFFIX);
+    this.threads = Math.max(1, pthreads);
+    this.checkpointInterval = Math.max(1, pcheckpointInterval);
+    this.checkpoints = !poutput.endsWith(PuzzleFile.EXTENSION_COMPRESSED);
+  }
+
+  /** Starts the most costly waiting puzzles first, e.g. by {@link SearchCostEstimator#schedule}. */
+  public void prioritize(final ToDoubleFunction<String> pcost) {
+    this.cost = pcost;
+  }
+
+  /** Keeps a tag, e.g. the engine, in the checkpoint; only a run with the same tag resumes. */
+  public void tag(final String ptag) {
+    this.tag = ptag;
+  }
+
+  /**
+   * Returns whether there is no checkpoint or it belongs to this input, range and tag; {@link #run}
+   * refuses to resume from any other.
+   */
+  public boolean checkpointMatches() throws IOException {
+    if (!Files.exists(this.checkpoint)) {
+      return true;
+    }
+    final List<String> lines = Files.readAllLines(this.checkpoint, StandardCharsets.US_ASCII);
+    return (lines.size() > 2)
+        && String.join("\n", lines.subList(2, lines.size())).equals(this.identity());
+  }
+
+  /** Number of input records that were skipped because an earlier run had solved them. */
+  public long resumedFrom() {
+    return this.resumedFrom;
+  }
+
+  /** Number of solutions in the output after {@link #run}, including those of earlier runs. */
+  public long records() {
+    return this.records;
+  }
+
+  // ================================================================================
+  // Run
+  // ================================================================================
+  /**
+   * Solves the remaining puzzles.
+   *
+   * @return {@code true} if every puzzle was solved, {@code false} if one could not be solved; the
+   *         solutions before it are committed.
+   * @throws IOException
+   *           if a file could not be read or written, or the engine failed.
+   */
+  public boolean run(final Engine engine) throws IOException, InterruptedException {
+    return this.run(engine, null, 1);
+  }
+
+  /**
+   * Solves the remaining puzzles in batches of up to {@code batch} puzzles, in input order.
+   *
+   * @see #run(Engine)
+   */
+  public boolean run(final BatchEngine engine, final int batch)
+      throws IOException, InterruptedException {
+    return this.run(null, engine, Math.max(1, batch));
+  }
+
+  private boolean run(final Engine engine, final BatchEngine batchEngine, final int batch)
+      throws IOException, InterruptedException {
+    /* Resume from the last checkpoint, if any */
+    long records = 0;
+    long position = -1;
+    final String identity = this.identity();
+    if (Files.exists(this.checkpoint)) {
+      if (!this.checkpointMatches()) {
+        throw new IOException(this.checkpoint + " was written for another input or range, not "
+            + identity.replace('\n', ' ') + "; remove it to start over");
+      }
+      final List<String> lines = Files.readAllLines(this.checkpoint, StandardCharsets.US_ASCII);
+      records = Long.parseLong(lines.get(0).trim());
+      position = Long.parseLong(lines.get(1).trim());
+    }
+    this.resumedFrom = records;
+
+    final boolean prioritized = (this.cost != null) && (engine != null);
+    final ExecutorService pool = !prioritized ? Executors.newFixedThreadPool(this.threads)
+        : new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>());
+    /* Results in input order, bounded so that memory does not grow with the input */
+    final Deque<Future<String>> pending = new ArrayDeque<>();
+    final Deque<String> puzzles = new ArrayDeque<>();
+    /* More puzzles to choose from when the costly ones go first */
+    final int window = this.threads * (prioritized ? 16 : 4) * batch;
+    boolean solvedAll = true;
+
+    try (PuzzleFile.Source in = this.to < 0 ? PuzzleFile.openSource(this.input)
+        : PuzzleFile.openSource(this.input, this.from, this.to);
+        PuzzleFile.Sink out = PuzzleFile.openSink(this.output, position)) {
+      in.skip(records);
+      String line = null;
+      long sinceCheckpoint = 0;
+      boolean more = true;
+      while (more || !pending.isEmpty()) {
+        /* Keep the pool busy */
+        while (more && (pending.size() < window)) {
+          if (batchEngine != null) {
+            more = this.submit(in, batchEngine, batch, pool, pending, puzzles);
+            continue;
+          }
+          line = in.next();
+          if (line == null) {
+            more = false;
+          } else {
+            final String puzzle = line;
+            if (!prioritized) {
+              pending.add(pool.submit(() -> engine.solve(puzzle)));
+            } else {
+              final PrioritizedTask task =
+                  new PrioritizedTask(() -> engine.solve(puzzle), puzzle, this.cost, pool);
+              pool.execute(task);
+              pending.add(task);
+            }
+            puzzles.add(puzzle);
+          }
+        }
+        if (pending.isEmpty()) {
+          break;
+        }
+        /* Write the oldest result once it is available */
+        final String puzzle = puzzles.poll();
+        final String solution = this.await(pending.poll());
+        if (solution == null) {
+          System.out.println("Could not solve: " + puzzle);
+          solvedAll = false;
+          break;
+        }
+        out.write(solution);
+        records++;
+        if (this.checkpoints && (++sinceCheckpoint == this.checkpointInterval)) {
+          this.writeCheckpoint(records, out.commit(), identity);
+          sinceCheckpoint = 0;
+        }
+      }
+      if (this.checkpoints) {
+        final long committed = out.commit();
+        if (!solvedAll) {
+          this.writeCheckpoint(records, committed, identity);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+      this.records = records;
+    }
+    if (solvedAll) {
+      Files.deleteIfExists(this.checkpoint);
+    }
+    return solvedAll;
+  }
+
+  /**
+   * Reads a batch and queues its solve, with one future per puzzle; returns {@code false} at the
+   * end of the input.
+   */
+  private boolean submit(final PuzzleFile.Source in, final BatchEngine engine, final int batch,
+      final ExecutorService pool, final Deque<Future<String>> pending, final Deque<String> puzzles)
+      throws IOException {
+    final String[] chunk = new String[batch];
+    int n = 0;
+    String line = null;
+    while ((n < batch) && ((line = in.next()) != null)) {
+      chunk[n++] = line;
+    }
+    if (n > 0) {
+      final String[] part = n == batch ? chunk : Arrays.copyOf(chunk, n);
+      final CompletableFuture<String[]> solved = new CompletableFuture<>();
+      pool.execute(() -> {
+        try {
+          solved.complete(engine.solve(part));
+        } catch (final Throwable e) {
+          solved.completeExceptionally(e);
+        }
+      });
+      for (int k = 0; k < n; k++) {
+        final int lane = k;
+        pending.add(solved.thenApply(solutions -> solutions[lane]));
+        puzzles.add(part[k]);
+      }
+    }
+    return n == batch;
+  }
+
+  private String await(final Future<String> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (final ExecutionException e) {
+      throw new IOException("Solver failed", e.getCause());
+    }
+  }
+
+  /**
+   * A solve ordered by decreasing cost in the queue of the pool. It is queued once to estimate its
+   * cost, ahead of every solve, and then again with that cost, so the estimates are made by the
+   * threads of the pool and not by the one reading the input.
+   */
+  private static final class PrioritizedTask extends FutureTask<String>
+      implements Comparable<PrioritizedTask> {
+    private final String puzzle;
+    private final ToDoubleFunction<String> estimate;
+    private final Executor pool;
+    /* Only changed while the task is out of the queue */
+    private double cost = Double.POSITIVE_INFINITY;
+    private boolean estimated;
+
+    PrioritizedTask(final Callable<String> callable, final String ppuzzle,
+        final ToDoubleFunction<String> pestimate, final Executor ppool) {
+      super(callable);
+      this.puzzle = ppuzzle;
+      this.estimate = pestimate;
+      this.pool = ppool;
+    }
+
+    @Override
+    public void run() {
+      if (this.estimated) {
+        super.run();
+        return;
+      }
+      this.estimated = true;
+      try {
+        this.cost = this.estimate.applyAsDouble(this.puzzle);
+        this.pool.execute(this);
+      } catch (final RuntimeException e) {
+        /* Also once the pool is shut down after a failure */
+        this.setException(e);
+      }
+    }
+
+    @Override
+    public int compareTo(final PrioritizedTask other) {
+      return Double.compare(other.cost, this.cost);
+    }
+  }
+
+  /**
+   * Returns the input a checkpoint belongs to: its absolute path on one line, its size,
+   * modification time and the range solved on the next, and the tag, if any, on a third.
+   */
+  String identity() throws IOException {
+    final Path path = Paths.get(this.input).toAbsolutePath().normalize();
+    return path + "\n" + Files.size(path) + " " + Files.getLastModifiedTime(path).toMillis() + " "
+        + this.from + " " + this.to + (this.tag == null ? "" : "\n" + this.tag);
+  }
+
+  /** Replaces the checkpoint file atomically, so a crash leaves either the old or the new one. */
+  private void writeCheckpoint(final long records, final long position, final String identity)
+      throws IOException {
+    writeAtomically(this.checkpoint, records + "\n" + position + "\n" + identity + "\n");
+  }
+
+  /**
+   * Replaces a file atomically by renaming a temporary file over it. The temporary file is forced
+   * to disk first, as {@link PuzzleFile.Sink#commit} does for the output, so that after a power
+   * loss the rename cannot have survived without the contents.
+   */
+  static void writeAtomically(final Path file, final String contents) throws IOException {
+    final Path tmp = Paths.get(file + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      final ByteBuffer buffer = ByteBuffer.wrap(contents.getBytes(StandardCharsets.US_ASCII));
+      while (buffer.hasRemaining()) {
+        ch.write(buffer);
+      }
+      ch.force(true);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
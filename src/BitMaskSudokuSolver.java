@@ -0,0 +1,302 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Bit mask engine: solves a puzzle by depth-first search with minimum remaining values, keeping the
+ * values used in every row, column and box as bit masks (bit v set for value v), so the candidates
+ * of a cell are one OR and one mask. One solver is reused for any number of puzzles and allocates
+ * nothing while searching.
+ */
+public class BitMaskSudokuSolver {
+
+  // ================================================================================
+  // Other Variables
+  // ================================================================================
+  /* The loaded puzzle, 0 for empty squares */
+  private final int[] cells = new int[81];
+
+  /* Search state */
+  private final int[] grid = new int[81];
+  private final int[] rowMask = new int[9];
+  private final int[] colMask = new int[9];
+  private final int[] boxMask = new int[9];
+  /* Empty cells, the first ones are assigned at the current depth */
+  private final int[] empties = new int[81];
+  private int emptyCount;
+  private int limit;
+  private int solutions;
+  private Random random;
+  /* A value the search must not give to a cell */
+  private int excludedCell = -1;
+  private int excludedBit;
+
+  public long backTracks = 0;
+
+  // ================================================================================
+  // Main
+  // ================================================================================
+  /**
+   * Benchmarks this engine, alone and after {@link LockstepPropagator}, against the
+   * {@link SudokuSolver} path.
+   *
+   * @param args
+   *          Input File, optionally the heuristic id of the {@link SudokuSolver} path (default 1).
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("There should be at least one input argument in the format:\n"
+          + "\t<input file> [heuristic id]");
+      return;
+    }
+    final int heuristic = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    final List<String> puzzles = new ArrayList<>();
+    try (PuzzleFile.Source in = PuzzleFile.openSource(args[0])) {
+      String line = null;
+      while ((line = in.next()) != null) {
+        puzzles.add(line);
+      }
+    }
+
+    /* SudokuSolver path */
+    long t0 = System.nanoTime();
+    int solved = 0;
+    for (final String puzzle : puzzles) {
+      if (SudokuSolver.create(heuristic, puzzle).solve()) {
+        solved++;
+      }
+    }
+    final double csp = puzzles.size() / ((System.nanoTime() - t0) / 1e9);
+    System.out.printf("SudokuSolver (heuristic %d): %,.0f puzzles/s, %d solved%n", heuristic, csp,
+        solved);
+
+    /* Bit masks, a few rounds so the JIT has compiled the search */
+    final BitMaskSudokuSolver solver = new BitMaskSudokuSolver();
+    for (int round = 1; round <= 5; round++) {
+      t0 = System.nanoTime();
+      solved = 0;
+      for (final String puzzle : puzzles) {
+        solver.load(puzzle);
+        if (solver.solve()) {
+          solved++;
+        }
+      }
+      final double rate = puzzles.size() / ((System.nanoTime() - t0) / 1e9);
+      System.out.printf("Bit masks round %d: %,.0f puzzles/s, %d solved, %.1fx%n", round, rate,
+          solved, rate / csp);
+    }
+
+    /* Lockstep propagation, on scalar loops and on vectors if they are available */
+    final LockstepPropagator scalar = new LockstepPropagator(LockstepPropagator.LANES);
+    final LockstepPropagator lanes = LockstepPropagator.create(LockstepPropagator.LANES);
+    for (final LockstepPropagator propagator : lanes.getClass() == scalar.getClass()
+        ? new LockstepPropagator[] { scalar } : new LockstepPropagator[] { scalar, lanes }) {
+      for (int round = 1; round <= 5; round++) {
+        t0 = System.nanoTime();
+        solved = 0;
+        for (int from = 0; from < puzzles.size(); from += propagator.lanes()) {
+          final int n = Math.min(propagator.lanes(), puzzles.size() - from);
+          for (int l = 0; l < n; l++) {
+            propagator.load(l, puzzles.get(from + l));
+          }
+          propagator.propagate();
+          for (int l = 0; l < n; l++) {
+            if (propagator.solve(l, solver) != null) {
+              solved++;
+            }
+          }
+        }
+        final double rate = puzzles.size() / ((System.nanoTime() - t0) / 1e9);
+        System.out.printf("%s (%d lanes) round %d: %,.0f puzzles/s, %d solved, %.1fx%n",
+            propagator.getClass().getName(), propagator.lanes(), round, rate, solved, rate / csp);
+      }
+    }
+  }
+
+  // ================================================================================
+  // Puzzle
+  // ================================================================================
+  /** Loads a row-rasterized puzzle, empty squares as '.'. */
+  public void load(final String line) {
+    for (int i = 0; i < 81; i++) {
+      final char cval = line.charAt(i);
+      this.cells[i] = (cval == '.') || (cval == '0') ? 0 : cval - '0';
+    }
+  }
+
+  /** Loads a grid of values, 0 for empty squares. */
+  public void load(final int[] values) {
+    System.arraycopy(values, 0, this.cells, 0, 81);
+  }
+
+  /** Copies the values of the puzzle, 0 for empty squares, into {@code values}. */
+  public void values(final int[] values) {
+    System.arraycopy(this.cells, 0, values, 0, 81);
+  }
+
+  /** Returns the row-rasterized values of the puzzle, empty squares as '.'. */
+  public String solution() {
+    final char[] chars = new char[81];
+    for (int i = 0; i < 81; i++) {
+      final int v = this.cells[i];
+      chars[i] = v == 0 ? '.' : (char) ('0' + v);
+    }
+    return new String(chars);
+  }
+
+  // ================================================================================
+  // Search
+  // ================================================================================
+  /**
+   * Solves the puzzle by depth-first search, keeping the solution as the puzzle.
+   *
+   * @return whether the puzzle has a solution.
+   */
+  public boolean solve() {
+    if (!this.begin() || (this.search(1, null) == 0)) {
+      return false;
+    }
+    this.load(this.grid);
+    return true;
+  }
+
+  /**
+   * Counts the solutions of the puzzle, stopping at {@code limit}; the puzzle is left unchanged. A
+   * count of 1 with a limit of 2 means the puzzle has a unique solution.
+   */
+  public int countSolutions(final int limit) {
+    if (!this.begin()) {
+      return 0;
+    }
+    return this.search(limit, null);
+  }
+
+  /**
+   * Returns whether the puzzle has a solution in which an empty cell does not take a given value.
+   * If the puzzle was made by emptying that cell of a puzzle with a unique solution, this is the
+   * case if and only if the emptied puzzle has more than one solution, and it is usually found
+   * faster than counting two solutions. The puzzle is left unchanged.
+   */
+  public boolean hasSolutionWithout(final int cell, final int value) {
+    if (!this.begin()) {
+      return false;
+    }
+    this.excludedCell = cell;
+    this.excludedBit = 1 << value;
+    try {
+      return this.search(1, null) > 0;
+    } finally {
+      this.excludedCell = -1;
+    }
+  }
+
+  /** Replaces the puzzle with a random complete grid. */
+  public void fill(final Random random) {
+    Arrays.fill(this.cells, 0);
+    this.begin();
+    this.search(1, random);
+    this.load(this.grid);
+  }
+
+  /** Copies the puzzle into the search state; returns false if it is inconsistent. */
+  private boolean begin() {
+    Arrays.fill(this.rowMask, 0);
+    Arrays.fill(this.colMask, 0);
+    Arrays.fill(this.boxMask, 0);
+    this.emptyCount = 0;
+    for (int i = 0; i < 81; i++) {
+      final int v = this.cells[i];
+      this.grid[i] = v;
+      if (v == 0) {
+        this.empties[this.emptyCount++] = i;
+      } else {
+        final int bit = 1 << v;
+        final int r = Grid.ROW[i];
+        final int c = Grid.COL[i];
+        final int b = Grid.BOX[i];
+        if (((this.rowMask[r] | this.colMask[c] | this.boxMask[b]) & bit) != 0) {
+          return false;
+        }
+        this.rowMask[r] |= bit;
+        this.colMask[c] |= bit;
+        this.boxMask[b] |= bit;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Searches from the search state until {@code limit} solutions are found, trying values in
+   * increasing order, or in random order if {@code random} is given. Returns the number of
+   * solutions found; if it reaches the limit the last one is left in the search state.
+   */
+  private int search(final int limit, final Random random) {
+    this.limit = limit;
+    this.random = random;
+    this.solutions = 0;
+    this.search(0);
+    return this.solutions;
+  }
+
+  /** Returns whether the search should stop. */
+  private boolean search(final int depth) {
+    if (depth == this.emptyCount) {
+      /* Complete assignment */
+      return ++this.solutions >= this.limit;
+    }
+    /* Select the empty cell with minimum remaining values, empties[depth..] are unassigned */
+    int at = depth;
+    int bestCand = 0;
+    int bestCount = 10;
+    for (int k = depth; k < this.emptyCount; k++) {
+      final int i = this.empties[k];
+      int cand = Grid.ALL
+          & ~(this.rowMask[Grid.ROW[i]] | this.colMask[Grid.COL[i]] | this.boxMask[Grid.BOX[i]]);
+      if (i == this.excludedCell) {
+        cand &= ~this.excludedBit;
+      }
+      final int count = Integer.bitCount(cand);
+      if (count < bestCount) {
+        at = k;
+        bestCand = cand;
+        bestCount = count;
+        if (count <= 1) {
+          break;
+        }
+      }
+    }
+    final int best = this.empties[at];
+    this.empties[at] = this.empties[depth];
+    this.empties[depth] = best;
+    /* Try every candidate */
+    final int r = Grid.ROW[best];
+    final int c = Grid.COL[best];
+    final int b = Grid.BOX[best];
+    while (bestCand != 0) {
+      int rest = bestCand;
+      if (this.random != null) {
+        /* Pick any remaining candidate */
+        for (int skip = this.random.nextInt(Integer.bitCount(bestCand)); skip > 0; skip--) {
+          rest &= rest - 1;
+        }
+      }
+      final int bit = rest & -rest;
+      bestCand ^= bit;
+      this.grid[best] = Integer.numberOfTrailingZeros(bit);
+      this.rowMask[r] |= bit;
+      this.colMask[c] |= bit;
+      this.boxMask[b] |= bit;
+      if (this.search(depth + 1)) {
+        return true;
+      }
+      this.rowMask[r] ^= bit;
+      this.colMask[c] ^= bit;
+      this.boxMask[b] ^= bit;
+    }
+    this.grid[best] = 0;
+    this.backTracks++;
+    return false;
+  }
+}
@@ -0,0 +1,310 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Shrinks the CNF of a puzzle before it is handed to MINISAT.
+ *
+ * The givens are propagated first: a value is removed from the cells related to a cell with a
+ * single value left (naked single), and a cell becomes fixed once it is the only one left for a
+ * value in a row, column or box (hidden single), until neither applies. Fixed cells need no
+ * variables, so only the values left in the other cells get one, numbered from 1. The CNF then
+ * holds, for every cell that is not fixed, one clause that it takes one of its values and one
+ * clause per pair of its values that it does not take both, and for every pair of related cells that
+ * are not fixed, one clause per value left in both that they do not both take it. The preprocessor
+ * is also the mapping back from the variables of a model to cells and values.
+ */
+public class CnfPreprocessor {
+
+	/* Values left in every cell as bit masks, bit v for value v */
+	private final int[] domains = new int[81];
+	private boolean unsatisfiable;
+
+	/* Variable of every cell and value at 10 * cell + value, 0 if the cell is fixed */
+	private final int[] ids = new int[81 * 10];
+	/* Cell and value of every variable */
+	private final int[] cells = new int[(81 * 9) + 1];
+	private final int[] values = new int[(81 * 9) + 1];
+	private int variables;
+
+	/** Propagates the givens of a row-rasterized puzzle and numbers the variables left. */
+	public CnfPreprocessor(final String line) {
+		for (int i = 0; i < 81; i++) {
+			final char c = line.charAt(i);
+			this.domains[i] = ((c == '.') || (c == '0')) ? Grid.ALL : 1 << (c - '0');
+		}
+		this.propagate();
+		if (!this.unsatisfiable) {
+			for (int i = 0; i < 81; i++) {
+				if (!isSingle(this.domains[i])) {
+					for (int v = 1; v <= 9; v++) {
+						if ((this.domains[i] & (1 << v)) != 0) {
+							this.variables++;
+							this.ids[(10 * i) + v] = this.variables;
+							this.cells[this.variables] = i;
+							this.values[this.variables] = v;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// ================================================================================
+	// Main
+	// ================================================================================
+	/**
+	 * Compares the size of the full and the preprocessed encoding of every puzzle of a file and,
+	 * given a MINISAT binary, the time MINISAT takes on each.
+	 *
+	 * @param args
+	 *            <input-file> [minisat-binary], the input may be in the binary {@link PuzzleFile} format
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.out.println("There should be at least one input argument in the format:\n"
+					+ "\t<input file> [minisat binary]");
+			return;
+		}
+		final Path dir = Files.createTempDirectory("cnf");
+		final Path input = dir.resolve(SAT.MINISAT_INPUT_FILE);
+		final Path output = dir.resolve(SAT.MINISAT_OUTPUT_FILE);
+		/* Variables, clauses, bytes and MINISAT milliseconds of either encoding */
+		final long[] full = new long[4];
+		final long[] reduced = new long[4];
+		int puzzles = 0;
+		int solvedByPropagation = 0;
+		try (PuzzleFile.Source in = PuzzleFile.openSource(args[0])) {
+			String line = null;
+			while ((line = in.next()) != null) {
+				puzzles++;
+				StringWriter cnf = new StringWriter();
+				SAT.writeMiniSATInput(line, cnf);
+				count(full, cnf.toString());
+				final String expected =
+						args.length > 1 ? run(args[1], cnf.toString(), input, output, full, null) : null;
+
+				final CnfPreprocessor pre = new CnfPreprocessor(line);
+				String solution = null;
+				if (pre.unsatisfiable || (pre.variables == 0)) {
+					/* MINISAT is not needed */
+					solvedByPropagation++;
+					solution = pre.unsatisfiable ? null : SAT.parse(new int[0], pre);
+				} else {
+					cnf = new StringWriter();
+					reduced[1] += pre.write(cnf);
+					reduced[0] += pre.variables;
+					reduced[2] += cnf.toString().length();
+					solution = args.length > 1 ? run(args[1], cnf.toString(), input, output, reduced, pre) : null;
+				}
+				if ((args.length > 1) && ((solution == null) ? (expected != null) : !solution.equals(expected))) {
+					System.out.println("Different solution for " + line);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(input);
+			Files.deleteIfExists(output);
+			Files.deleteIfExists(dir);
+		}
+		System.out.printf("%d puzzle(s), %d solved by propagation alone.%n", puzzles, solvedByPropagation);
+		System.out.printf("%-14s %12s %12s %14s %12s%n", "Encoding", "Variables", "Clauses", "Bytes", "MINISAT ms");
+		System.out.printf("%-14s %,12d %,12d %,14d %,12d%n", "Full", full[0], full[1], full[2], full[3]);
+		System.out.printf("%-14s %,12d %,12d %,14d %,12d%n", "Preprocessed", reduced[0], reduced[1],
+				reduced[2], reduced[3]);
+	}
+
+	/** Adds the variables, clauses and bytes of a full encoding. */
+	private static void count(final long[] totals, final String cnf) {
+		final String[] header = cnf.substring(0, cnf.indexOf('\n')).split(" ");
+		totals[0] += Long.parseLong(header[2]);
+		totals[1] += Long.parseLong(header[3]);
+		totals[2] += cnf.length();
+	}
+
+	/** Runs MINISAT on a CNF, adds its time and returns the solution. */
+	private static String run(final String binary, final String cnf, final Path input, final Path output,
+			final long[] totals, final CnfPreprocessor mapping) throws IOException, InterruptedException {
+		try (BufferedWriter fw = Files.newBufferedWriter(input, StandardCharsets.US_ASCII)) {
+			fw.write(cnf);
+		}
+		final long t0 = System.nanoTime();
+		new ProcessBuilder(binary, input.toString(), output.toString())
+			.redirectErrorStream(true)
+			.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+			.start()
+			.waitFor();
+		totals[3] += (System.nanoTime() - t0) / 1_000_000;
+		try (BufferedReader in = Files.newBufferedReader(output, StandardCharsets.US_ASCII)) {
+			return SAT.readMiniSATOutput(in, mapping);
+		}
+	}
+
+	// ================================================================================
+	// Mapping
+	// ================================================================================
+	/** Returns whether propagation left a cell without a value, or a value of a unit without a cell. */
+	public boolean isUnsatisfiable() {
+		return this.unsatisfiable;
+	}
+
+	/** Number of variables left; 0 if propagation alone solved the puzzle. */
+	public int variables() {
+		return this.variables;
+	}
+
+	/** Returns the cell, {@code 9 * row + col}, of a variable. */
+	public int cell(final int variable) {
+		return this.cells[variable];
+	}
+
+	/** Returns the value of a variable. */
+	public int value(final int variable) {
+		return this.values[variable];
+	}
+
+	/** Returns the values of the fixed cells, 0 for the other cells. */
+	public int[] fixed() {
+		final int[] grid = new int[81];
+		for (int i = 0; i < 81; i++) {
+			if (isSingle(this.domains[i])) {
+				grid[i] = Integer.numberOfTrailingZeros(this.domains[i]);
+			}
+		}
+		return grid;
+	}
+
+	// ================================================================================
+	// Encoding
+	// ================================================================================
+	/**
+	 * Writes the preprocessed CNF in the DIMACS format read by MINISAT.
+	 *
+	 * @return the number of clauses
+	 */
+	public int write(final Writer fw) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		int clauses = 0;
+		if (this.unsatisfiable) {
+			/* A contradiction, so that MINISAT answers UNSAT */
+			sb.append("1 0\n-1 0\n");
+			clauses = 2;
+		}
+		for (int i = 0; i < 81; i++) {
+			final int d = this.domains[i];
+			if (this.unsatisfiable || isSingle(d)) {
+				continue;
+			}
+			/* The cell takes one of its values ... */
+			for (int v = 1; v <= 9; v++) {
+				if ((d & (1 << v)) != 0) {
+					sb.append(this.ids[(10 * i) + v]).append(' ');
+				}
+			}
+			sb.append("0\n");
+			clauses++;
+			/* ... and not two of them */
+			for (int v = 1; v <= 9; v++) {
+				for (int v2 = v + 1; v2 <= 9; v2++) {
+					if (((d & (1 << v)) != 0) && ((d & (1 << v2)) != 0)) {
+						clause(sb, this.ids[(10 * i) + v], this.ids[(10 * i) + v2]);
+						clauses++;
+					}
+				}
+			}
+			/* Related cells that are not fixed do not take a value left in both */
+			for (final int j : Grid.PEERS[i]) {
+				final int common = d & this.domains[j];
+				if ((j > i) && !isSingle(this.domains[j]) && (common != 0)) {
+					for (int v = 1; v <= 9; v++) {
+						if ((common & (1 << v)) != 0) {
+							clause(sb, this.ids[(10 * i) + v], this.ids[(10 * j) + v]);
+							clauses++;
+						}
+					}
+				}
+			}
+		}
+		fw.write("p cnf " + Math.max(1, this.variables) + " " + clauses + "\n");
+		fw.write(sb.toString());
+		return clauses;
+	}
+
+	/* Not both a and b */
+	private static void clause(final StringBuilder sb, final int a, final int b) {
+		sb.append('-').append(a).append(" -").append(b).append(" 0\n");
+	}
+
+	// ================================================================================
+	// Propagation
+	// ================================================================================
+	/** Applies naked and hidden singles until neither removes a value. */
+	private void propagate() {
+		final int[] queue = new int[81];
+		int tail = 0;
+		for (int i = 0; i < 81; i++) {
+			if (isSingle(this.domains[i])) {
+				queue[tail++] = i;
+			}
+		}
+		int head = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			/* Naked singles: every cell is queued once, when it is left with a single value */
+			while (head < tail) {
+				final int cell = queue[head++];
+				final int bit = this.domains[cell];
+				for (final int peer : Grid.PEERS[cell]) {
+					final int d = this.domains[peer];
+					if ((d & bit) != 0) {
+						this.domains[peer] = d & ~bit;
+						if ((d & ~bit) == 0) {
+							this.unsatisfiable = true;
+							return;
+						}
+						if (isSingle(d & ~bit)) {
+							queue[tail++] = peer;
+						}
+					}
+				}
+			}
+			/* Hidden singles */
+			for (final int[] unit : Grid.UNITS) {
+				/* Values with at least one and with at least two cells left */
+				int once = 0;
+				int twice = 0;
+				for (final int i : unit) {
+					twice |= once & this.domains[i];
+					once |= this.domains[i];
+				}
+				if (once != Grid.ALL) {
+					this.unsatisfiable = true;
+					return;
+				}
+				final int hidden = once & ~twice;
+				for (final int i : unit) {
+					final int bit = this.domains[i] & hidden;
+					if ((bit != 0) && !isSingle(this.domains[i])) {
+						if (!isSingle(bit)) {
+							/* Two values need this cell */
+							this.unsatisfiable = true;
+							return;
+						}
+						this.domains[i] = bit;
+						queue[tail++] = i;
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean isSingle(final int d) {
+		return (d != 0) && ((d & (d - 1)) == 0);
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * Tables of the grid shared by the solvers that keep values as bit masks, bit v set for value v:
+ * cells are numbered 0-80 row by row, and units are rows 0-8, columns 9-17 and boxes 18-26.
+ */
+final class Grid {
+
+  /** Bits 1 to 9. */
+  static final int ALL = 0x3FE;
+
+  /** Row, column and box of every cell. */
+  static final int[] ROW = new int[81];
+  static final int[] COL = new int[81];
+  static final int[] BOX = new int[81];
+
+  /** Cells of rows 0-8, columns 9-17 and boxes 18-26. */
+  static final int[][] UNITS = new int[27][9];
+  /** The 20 related cells of every cell. */
+  static final int[][] PEERS = new int[81][20];
+
+  static {
+    for (int i = 0; i < 81; i++) {
+      final int row = i / 9;
+      final int col = i % 9;
+      final int box = (3 * (row / 3)) + (col / 3);
+      ROW[i] = row;
+      COL[i] = col;
+      BOX[i] = box;
+      UNITS[row][col] = i;
+      UNITS[9 + col][row] = i;
+      UNITS[18 + box][(3 * (row % 3)) + (col % 3)] = i;
+      int n = 0;
+      for (int j = 0; j < 81; j++) {
+        if ((j != i) && (((j / 9) == row) || ((j % 9) == col)
+            || (((3 * ((j / 9) / 3)) + ((j % 9) / 3)) == box))) {
+          PEERS[i][n++] = j;
+        }
+      }
+    }
+  }
+
+  private Grid() {
+  }
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+
+/**
+ * Propagates several puzzles in lockstep, one puzzle per lane, for batch workloads.
+ *
+ * <p>
+ * Cells hold their value as a bit mask (bit v set for value v, 0 for an empty cell) and all arrays
+ * are laid out cell-major, lane-minor ({@code cells[cell * lanes + lane]}), so every step is the
+ * same branch-free operation on one cell or unit of all lanes. {@link #propagate} computes the
+ * candidates of all 81 cells and assigns naked and hidden singles until no lane changes; the lanes
+ * are then finished one by one by a {@link BitMaskSudokuSolver}, whose search only looks for naked
+ * singles.
+ *
+ * <p>
+ * {@link #create} returns a {@code VectorLockstepPropagator}, which runs the same steps on the
+ * {@code jdk.incubator.vector} API, one vector of lanes at a time, when that optional class has
+ * been compiled from {@code src/vector/} and the module was added with
+ * {@code --add-modules jdk.incubator.vector}; otherwise it falls back to the scalar loops of this
+ * class.
+ */
+public class LockstepPropagator {
+
+  // ================================================================================
+  // Static Variables
+  // ================================================================================
+  /** Default number of lanes. */
+  public static final int LANES = 16;
+
+  /* Optional vector implementation, loaded by name so these sources compile without it */
+  private static final String VECTOR_CLASS = "VectorLockstepPropagator";
+
+  // ================================================================================
+  // Other Variables
+  // ================================================================================
+  final int lanes;
+
+  /* Values of the cells and candidates of the empty ones, cell-major and lane-minor */
+  final int[] cells;
+  final int[] candidates;
+  /* Values used in every unit, and values left for a single cell of it, unit-major */
+  final int[] used;
+  final int[] hidden;
+  /* Non-zero if a lane repeats a value in a unit, has none left for a value or a cell */
+  final int[] dead;
+
+  /* Values of the lane being finished */
+  private final int[] values = new int[81];
+
+  public LockstepPropagator(final int planes) {
+    this.lanes = planes;
+    this.cells = new int[81 * planes];
+    this.candidates = new int[81 * planes];
+    this.used = new int[27 * planes];
+    this.hidden = new int[27 * planes];
+    this.dead = new int[planes];
+  }
+
+  /**
+   * Returns the vector propagator if it is available, else a scalar one; either has at least
+   * {@code planes} lanes.
+   */
+  public static LockstepPropagator create(final int planes) {
+    try {
+      return (LockstepPropagator) Class.forName(VECTOR_CLASS).getDeclaredConstructor(int.class)
+          .newInstance(planes);
+    } catch (final ReflectiveOperationException | LinkageError e) {
+      /* Not compiled, or jdk.incubator.vector not added */
+      return new LockstepPropagator(planes);
+    }
+  }
+
+  public int lanes() {
+    return this.lanes;
+  }
+
+  // ================================================================================
+  // Lanes
+  // ================================================================================
+  /** Loads a row-rasterized puzzle, empty squares as '.', into a lane. */
+  public void load(final int lane, final String line) {
+    for (int i = 0; i < 81; i++) {
+      final char cval = line.charAt(i);
+      this.cells[(i * this.lanes) + lane] = (cval == '.') || (cval == '0') ? 0 : 1 << (cval - '0');
+    }
+  }
+
+  /** Copies the values of a lane, 0 for empty squares, into {@code values}. */
+  public void values(final int lane, final int[] values) {
+    for (int i = 0; i < 81; i++) {
+      /* Bit 31 stands for an empty cell, 31 % 31 is 0 */
+      final int bits = this.cells[(i * this.lanes) + lane] | (1 << 31);
+      values[i] = Integer.numberOfTrailingZeros(bits) % 31;
+    }
+  }
+
+  /** Returns whether propagation found a contradiction in a lane, i.e. it has no solution. */
+  public boolean isDead(final int lane) {
+    return this.dead[lane] != 0;
+  }
+
+  /**
+   * Finishes a lane after {@link #propagate} by the search of {@code solver}.
+   *
+   * @return the row-rasterized solution, or {@code null} if the lane has none.
+   */
+  public String solve(final int lane, final BitMaskSudokuSolver solver) {
+    if (this.isDead(lane)) {
+      return null;
+    }
+    this.values(lane, this.values);
+    solver.load(this.values);
+    return solver.solve() ? solver.solution() : null;
+  }
+
+  // ================================================================================
+  // Propagation
+  // ================================================================================
+  /**
+   * Assigns naked and hidden singles in all lanes in lockstep until no lane changes.
+   *
+   * @return the number of sweeps over all cells.
+   */
+  public int propagate() {
+    Arrays.fill(this.dead, 0);
+    int sweeps = 1;
+    while (this.sweep()) {
+      sweeps++;
+    }
+    return sweeps;
+  }
+
+  /**
+   * Computes the candidates of all cells of all lanes and assigns every cell that is a naked
+   * single or the only cell of a unit left for a value. A dead lane may be left with a cell holding
+   * several values; it does not change any more once all its cells are filled.
+   *
+   * @return whether a cell was assigned in any lane.
+   */
+  boolean sweep() {
+    final int n = this.lanes;
+    Arrays.fill(this.used, 0);
+    /* Values used in every unit */
+    for (int i = 0; i < 81; i++) {
+      final int c = i * n;
+      final int r = Grid.ROW[i] * n;
+      final int k = (9 + Grid.COL[i]) * n;
+      final int b = (18 + Grid.BOX[i]) * n;
+      for (int l = 0; l < n; l++) {
+        final int bit = this.cells[c + l];
+        this.dead[l] |= (this.used[r + l] | this.used[k + l] | this.used[b + l]) & bit;
+        this.used[r + l] |= bit;
+        this.used[k + l] |= bit;
+        this.used[b + l] |= bit;
+      }
+    }
+    /* Candidates of empty cells */
+    for (int i = 0; i < 81; i++) {
+      final int c = i * n;
+      final int r = Grid.ROW[i] * n;
+      final int k = (9 + Grid.COL[i]) * n;
+      final int b = (18 + Grid.BOX[i]) * n;
+      for (int l = 0; l < n; l++) {
+        /* All ones for an empty cell, zero for a filled one */
+        final int empty = (this.cells[c + l] - 1) >> 31;
+        final int cand =
+            ~(this.used[r + l] | this.used[k + l] | this.used[b + l]) & Grid.ALL & empty;
+        this.candidates[c + l] = cand;
+        this.dead[l] |= empty & ((cand - 1) >> 31);
+      }
+    }
+    /* Values left for a single cell of every unit */
+    for (int u = 0; u < 27; u++) {
+      final int[] unit = Grid.UNITS[u];
+      final int o = u * n;
+      for (int l = 0; l < n; l++) {
+        int once = 0;
+        int twice = 0;
+        for (final int i : unit) {
+          final int cand = this.candidates[(i * n) + l];
+          twice |= once & cand;
+          once |= cand;
+        }
+        this.hidden[o + l] = once & ~twice;
+        /* A value neither used nor left in a unit */
+        this.dead[l] |= Grid.ALL & ~(once | this.used[o + l]);
+      }
+    }
+    /* Assign singles */
+    int changed = 0;
+    for (int i = 0; i < 81; i++) {
+      final int c = i * n;
+      final int r = Grid.ROW[i] * n;
+      final int k = (9 + Grid.COL[i]) * n;
+      final int b = (18 + Grid.BOX[i]) * n;
+      for (int l = 0; l < n; l++) {
+        final int cand = this.candidates[c + l];
+        /* The candidates if there is at most one, else none */
+        final int naked = cand & (((cand & (cand - 1)) - 1) >> 31);
+        /* Two values that are each left only here kill the lane */
+        final int single = cand & (this.hidden[r + l] | this.hidden[k + l] | this.hidden[b + l]);
+        this.dead[l] |= single & (single - 1);
+        final int assign = naked | single;
+        this.cells[c + l] |= assign;
+        changed |= assign;
+      }
+    }
+    return changed != 0;
+  }
+}
@@ -0,0 +1,150 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of MINISAT workers, so that several puzzles can be solved by the external binary at once.
+ *
+ * Every worker owns a private temporary directory for its input and output files, so concurrent
+ * calls, or several runs started in the same working directory, never share files. A call borrows
+ * an idle worker, blocking until one is free, and kills MINISAT if it runs longer than the timeout
+ * or the calling thread is interrupted.
+ * Puzzles are encoded by {@link CnfPreprocessor}, and those it decides alone never start MINISAT.
+ */
+public class MiniSatPool implements Closeable {
+
+	private final String binary;
+	private final long timeoutMillis;
+	private final List<Path> directories = new ArrayList<>();
+	private final BlockingQueue<Path> idle;
+
+	/**
+	 * @param pbinary
+	 *            The MINISAT binary
+	 * @param workers
+	 *            The number of MINISAT processes that may run at once
+	 * @param ptimeoutMillis
+	 *            The time after which a MINISAT process is killed, 0 for none
+	 */
+	public MiniSatPool(final String pbinary, final int workers, final long ptimeoutMillis) throws IOException {
+		this.binary = pbinary;
+		this.timeoutMillis = ptimeoutMillis;
+		this.idle = new ArrayBlockingQueue<>(Math.max(1, workers));
+		for (int i = 0; i < Math.max(1, workers); i++) {
+			final Path dir = Files.createTempDirectory("minisat");
+			this.directories.add(dir);
+			this.idle.add(dir);
+		}
+	}
+
+	/**
+	 * Solves a puzzle with the next idle worker.
+	 *
+	 * @return the row-rasterized solution, or {@code null} if MINISAT found none
+	 * @throws IOException
+	 *             if MINISAT could not be run or did not finish within the timeout
+	 */
+	public String solve(final String puzzle) throws IOException, InterruptedException {
+		/* Propagate the givens, which may already decide the puzzle without MINISAT */
+		SolverEvents.SatPhase event = begin();
+		final CnfPreprocessor cnf = new CnfPreprocessor(puzzle);
+		if (cnf.isUnsatisfiable() || (cnf.variables() == 0)) {
+			commit(event, "encode", puzzle);
+			return cnf.isUnsatisfiable() ? null : SAT.parse(new int[0], cnf);
+		}
+		final Path dir = this.idle.take();
+		try {
+			final Path input = dir.resolve(SAT.MINISAT_INPUT_FILE);
+			final Path output = dir.resolve(SAT.MINISAT_OUTPUT_FILE);
+			/* create file to be fed to MiNISAT */
+			try (BufferedWriter fw = Files.newBufferedWriter(input, StandardCharsets.US_ASCII)) {
+				cnf.write(fw);
+			}
+			Files.deleteIfExists(output);
+			commit(event, "encode", puzzle);
+			event = begin();
+			/* Run MINISAT, its statistics on stdout are not needed */
+			final Process process = new ProcessBuilder(this.binary, input.toString(), output.toString())
+				.redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.start();
+			try {
+				if (this.timeoutMillis > 0) {
+					if (!process.waitFor(this.timeoutMillis, TimeUnit.MILLISECONDS)) {
+						throw new IOException("MINISAT timed out after " + this.timeoutMillis + " ms on " + puzzle);
+					}
+				} else {
+					process.waitFor();
+				}
+			} finally {
+				/* Also if this thread is interrupted, e.g. by BatchRunner shutting down its pool */
+				if (process.isAlive()) {
+					/* Not interruptible: the worker must be gone before its directory is reused */
+					process.destroyForcibly()
+						.onExit()
+						.join();
+				}
+			}
+			commit(event, "solve", puzzle);
+			if (!Files.exists(output)) {
+				throw new IOException("MINISAT wrote no result for " + puzzle);
+			}
+			/* Parse MINISAT output */
+			event = begin();
+			try (BufferedReader in = Files.newBufferedReader(output, StandardCharsets.US_ASCII)) {
+				return SAT.readMiniSATOutput(in, cnf);
+			} finally {
+				commit(event, "parse", puzzle);
+			}
+		} finally {
+			/* Never blocks, and does not throw if this thread is interrupted */
+			this.idle.add(dir);
+		}
+	}
+
+	private static SolverEvents.SatPhase begin() {
+		final SolverEvents.SatPhase event = new SolverEvents.SatPhase();
+		event.begin();
+		return event;
+	}
+
+	private static void commit(final SolverEvents.SatPhase event, final String phase, final String puzzle) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.phase = phase;
+			event.puzzle = puzzle;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Waits for the calls in progress to return their workers, which they do at once when interrupted,
+	 * then deletes the directories of the workers.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			for (int i = 0; i < this.directories.size(); i++) {
+				this.idle.take();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread()
+				.interrupt();
+			throw new IOException("Interrupted while waiting for the MINISAT workers", e);
+		}
+		for (final Path dir : this.directories) {
+			Files.deleteIfExists(dir.resolve(SAT.MINISAT_INPUT_FILE));
+			Files.deleteIfExists(dir.resolve(SAT.MINISAT_OUTPUT_FILE));
+			Files.deleteIfExists(dir);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/** Converts between the line-per-puzzle text format and the binary {@link PuzzleFile} format. */
+public class PuzzleConverter {
+
+  /**
+   * Converts or benchmarks puzzle files.
+   * <ul>
+   * <li>{@code <input file> <output file>} converts; the output format follows the output
+   * extension ({@code .sdb} binary, {@code .sdz} compressed binary, anything else text) and the
+   * input format is detected from its content.</li>
+   * <li>{@code bench <text file> <binary file>} compares parsing throughput of
+   * {@code BufferedReader.readLine} against the binary reader.</li>
+   * </ul>
+   *
+   * @param args
+   *          see above.
+   * @throws IOException
+   *           if a file could not be read or written.
+   */
+  public static void main(final String[] args) throws IOException {
+    if ((args.length == 3) && args[0].equals("bench")) {
+      bench(args[1], args[2]);
+      return;
+    }
+    if (args.length != 2) {
+      System.out.println("There should be two input arguments in the format:\n"
+          + "\t<input file> <output file>\n" + "\tor bench <text file> <binary file>");
+      return;
+    }
+    long records = 0;
+    try (PuzzleFile.Source in = PuzzleFile.openSource(args[0]);
+        PuzzleFile.Sink out = PuzzleFile.openSink(args[1])) {
+      String grid = null;
+      while ((grid = in.next()) != null) {
+        out.write(grid);
+        records++;
+      }
+    }
+    System.out.println("Converted " + records + " record(s).");
+  }
+
+  /** Reads both files a few times and prints records per second of the last pass. */
+  private static void bench(final String text, final String binary) throws IOException {
+    for (int pass = 0; pass < 10; pass++) {
+      /* Text */
+      long t0 = System.nanoTime();
+      long n = 0;
+      long sum = 0;
+      try (BufferedReader in = new BufferedReader(new FileReader(text), 1 << 16)) {
+        String line = null;
+        while ((line = in.readLine()) != null) {
+          sum += line.charAt(80);
+          n++;
+        }
+      }
+      final double textRate = n / ((System.nanoTime() - t0) / 1e9);
+      /* Binary */
+      t0 = System.nanoTime();
+      long m = 0;
+      try (PuzzleFile.Source in = PuzzleFile.openSource(binary)) {
+        String grid = null;
+        while ((grid = in.next()) != null) {
+          sum -= grid.charAt(80);
+          m++;
+        }
+      }
+      final double binaryRate = m / ((System.nanoTime() - t0) / 1e9);
+      System.out.printf("Pass %d: readLine %,.0f records/s, binary %,.0f records/s (%d/%d, %d)%n",
+          pass + 1, textRate, binaryRate, n, m, sum);
+    }
+  }
+}
@@ -0,0 +1,633 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary container for puzzles and solutions.
+ *
+ * <p>
+ * Every record is one grid packed at 4 bits per cell (0 for an empty cell), i.e. 41 bytes instead
+ * of the 82 bytes of a text line. Records are grouped in blocks of {@link #RECORDS_PER_BLOCK}; in a
+ * compressed file each block is deflated separately and a table of block offsets at the end of the
+ * file gives random access by record number. Layout (big-endian):
+ * <ul>
+ * <li>header: magic {@code SDKB}, version, flags, 2 reserved bytes, records per block, record
+ * count, index offset</li>
+ * <li>uncompressed: records back to back</li>
+ * <li>compressed: deflated blocks followed by the index of block offsets (one more offset than
+ * blocks, the last one marks the end of the data)</li>
+ * </ul>
+ * Reading a compressed file is bound by inflating its blocks, so it is slower than reading lines of
+ * text; it saves space, while the uncompressed format is the one to use for parsing speed.
+ */
+public final class PuzzleFile {
+
+  // ================================================================================
+  // Static Variables
+  // ================================================================================
+  /** Extension of uncompressed binary files. */
+  public static final String EXTENSION = ".sdb";
+  /** Extension of block-compressed binary files. */
+  public static final String EXTENSION_COMPRESSED = ".sdz";
+
+  public static final int RECORD_SIZE = 41;
+  public static final int RECORDS_PER_BLOCK = 4096;
+
+  private static final int MAGIC = 0x53444B42; /* "SDKB" */
+  private static final byte VERSION = 1;
+  private static final byte FLAG_DEFLATE = 1;
+  private static final int HEADER_SIZE = 4 + 1 + 1 + 2 + 4 + 8 + 8;
+
+  /** Both symbols of every packed byte, so unpacking is one table lookup per cell. */
+  private static final byte[] SYMBOLS = new byte[512];
+
+  static {
+    for (int b = 0; b < 256; b++) {
+      SYMBOLS[2 * b] = (byte) ((b >> 4) == 0 ? '.' : '0' + (b >> 4));
+      SYMBOLS[(2 * b) + 1] = (byte) ((b & 0xF) == 0 ? '.' : '0' + (b & 0xF));
+    }
+  }
+
+  // ================================================================================
+  // Sources and Sinks
+  // ================================================================================
+  /** Sequential source of row-rasterized grids, empty cells as '.'. */
+  public interface Source extends Closeable {
+    /** Returns the next grid or {@code null} at the end of the input. */
+    String next() throws IOException;
+
+    /** Skips the given number of grids. */
+    default void skip(final long records) throws IOException {
+      for (long i = 0; (i < records) && (this.next() != null); i++) {
+        /* discard */
+      }
+    }
+  }
+
+  /** Sequential sink of row-rasterized grids. */
+  public interface Sink extends Closeable {
+    void write(String grid) throws IOException;
+
+    /**
+     * Makes everything written so far durable and returns a position that can be passed to
+     * {@link PuzzleFile#openSink(String, long)} to resume writing after it.
+     */
+    long commit() throws IOException;
+  }
+
+  /** Opens a binary file if it starts with the magic number, else a line-per-puzzle text file. */
+  public static Source openSource(final String path) throws IOException {
+    if (isBinary(path)) {
+      return new Reader(path);
+    }
+    final BufferedReader in = new BufferedReader(new FileReader(path), 1 << 16);
+    return new Source() {
+      @Override
+      public String next() throws IOException {
+        return in.readLine();
+      }
+
+      @Override
+      public void close() throws IOException {
+        in.close();
+      }
+    };
+  }
+
+  /**
+   * Opens the part of an input between two boundaries returned by {@link #split}: byte offsets of
+   * line starts in a text file, record numbers in a binary file.
+   */
+  public static Source openSource(final String path, final long from, final long to)
+      throws IOException {
+    if (isBinary(path)) {
+      final Reader reader = new Reader(path);
+      reader.seek(from);
+      return new Source() {
+        private long left = to - from;
+
+        @Override
+        public String next() throws IOException {
+          if (this.left <= 0) {
+            return null;
+          }
+          this.left--;
+          return reader.next();
+        }
+
+        @Override
+        public void skip(final long records) {
+          final long n = Math.min(records, this.left);
+          reader.skip(n);
+          this.left -= n;
+        }
+
+        @Override
+        public void close() throws IOException {
+          reader.close();
+        }
+      };
+    }
+    final FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    ch.position(from);
+    final InputStream range = new FilterInputStream(Channels.newInputStream(ch)) {
+      private long left = to - from;
+
+      @Override
+      public int read() throws IOException {
+        if (this.left <= 0) {
+          return -1;
+        }
+        this.left--;
+        return super.read();
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (this.left <= 0) {
+          return -1;
+        }
+        final int n = super.read(b, off, (int) Math.min(len, this.left));
+        if (n > 0) {
+          this.left -= n;
+        }
+        return n;
+      }
+    };
+    final BufferedReader in =
+        new BufferedReader(new InputStreamReader(range, StandardCharsets.US_ASCII), 1 << 16);
+    return new Source() {
+      @Override
+      public String next() throws IOException {
+        return in.readLine();
+      }
+
+      @Override
+      public void close() throws IOException {
+        in.close();
+      }
+    };
+  }
+
+  /**
+   * Splits an input into at most {@code parts} ranges of about the same size for
+   * {@link #openSource(String, long, long)}. Range k runs from boundary k to boundary k + 1; text
+   * files are split at the first line start after every k / parts of their bytes.
+   */
+  public static long[] split(final String path, final int parts) throws IOException {
+    final long size;
+    final boolean binary = isBinary(path);
+    if (binary) {
+      try (Reader reader = new Reader(path)) {
+        size = reader.size();
+      }
+    } else {
+      size = Files.size(Paths.get(path));
+    }
+    final long[] bounds = new long[parts + 1];
+    int n = 1;
+    try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      for (int k = 1; k < parts; k++) {
+        final long nominal = (size * k) / parts;
+        final long bound = binary ? nominal : lineStart(ch, nominal);
+        if ((bound > bounds[n - 1]) && (bound < size)) {
+          bounds[n++] = bound;
+        }
+      }
+    }
+    bounds[n++] = size;
+    return Arrays.copyOf(bounds, n);
+  }
+
+  /** Returns the first line start at or after a byte offset; a line ends at '\n', '\r' or both. */
+  private static long lineStart(final FileChannel ch, final long offset) throws IOException {
+    if (offset == 0) {
+      return 0;
+    }
+    final ByteBuffer buf = ByteBuffer.allocate(1 << 12);
+    long p = offset - 1;
+    boolean carriageReturn = false;
+    while (true) {
+      buf.clear();
+      final int n = ch.read(buf, p);
+      if (n < 0) {
+        return p;
+      }
+      for (int i = 0; i < n; i++, p++) {
+        final byte b = buf.get(i);
+        if (carriageReturn) {
+          return b == '\n' ? p + 1 : p;
+        }
+        if (b == '\n') {
+          return p + 1;
+        }
+        carriageReturn = b == '\r';
+      }
+    }
+  }
+
+  /** Opens a binary sink for the {@code .sdb}/{@code .sdz} extensions, else a text sink. */
+  public static Sink openSink(final String path) throws IOException {
+    return openSink(path, -1);
+  }
+
+  /**
+   * Opens a sink like {@link #openSink(String)}, but keeps the output up to a position returned by
+   * {@link Sink#commit()} and appends after it. A negative position starts a new file.
+   */
+  public static Sink openSink(final String path, final long resumeAt) throws IOException {
+    if (path.endsWith(EXTENSION)) {
+      return new Writer(path, false, resumeAt);
+    }
+    if (path.endsWith(EXTENSION_COMPRESSED)) {
+      return new Writer(path, true, resumeAt);
+    }
+    final FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    ch.truncate(Math.max(resumeAt, 0));
+    ch.position(Math.max(resumeAt, 0));
+    final BufferedWriter out = new BufferedWriter(
+        new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.US_ASCII), 1 << 16);
+    return new Sink() {
+      @Override
+      public void write(final String grid) throws IOException {
+        out.write(grid);
+        out.write('\n');
+      }
+
+      @Override
+      public long commit() throws IOException {
+        out.flush();
+        ch.force(false);
+        return ch.position();
+      }
+
+      @Override
+      public void close() throws IOException {
+        out.close();
+      }
+    };
+  }
+
+  /** Returns whether the file starts with the binary magic number. */
+  public static boolean isBinary(final String path) throws IOException {
+    try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      final ByteBuffer buf = ByteBuffer.allocate(4);
+      while (buf.hasRemaining() && (ch.read(buf) >= 0)) {
+        /* keep reading */
+      }
+      return !buf.hasRemaining() && (buf.getInt(0) == MAGIC);
+    }
+  }
+
+  // ================================================================================
+  // Packing
+  // ================================================================================
+  /** Packs a row-rasterized grid into {@code dst} at {@code off}, two cells per byte. */
+  static void pack(final String grid, final byte[] dst, final int off) {
+    for (int i = 0; i < 81; i += 2) {
+      final int hi = cell(grid.charAt(i));
+      final int lo = (i + 1) < 81 ? cell(grid.charAt(i + 1)) : 0;
+      dst[off + (i >> 1)] = (byte) ((hi << 4) | lo);
+    }
+  }
+
+  /** Unpacks a record at {@code off} into a row-rasterized grid. */
+  static String unpack(final byte[] src, final int off, final byte[] scratch) {
+    for (int i = 0; i < 80; i += 2) {
+      final int b = (src[off + (i >> 1)] & 0xFF) << 1;
+      scratch[i] = SYMBOLS[b];
+      scratch[i + 1] = SYMBOLS[b + 1];
+    }
+    scratch[80] = SYMBOLS[(src[off + 40] & 0xFF) << 1];
+    return new String(scratch, 0, 81, StandardCharsets.ISO_8859_1);
+  }
+
+  private static int cell(final char c) {
+    if ((c == '.') || (c == '0')) {
+      return 0;
+    }
+    if ((c < '1') || (c > '9')) {
+      throw new IllegalArgumentException("Invalid cell '" + c + "'");
+    }
+    return c - '0';
+  }
+
+  // ================================================================================
+  // Reader
+  // ================================================================================
+  /** Reads records sequentially or by record number. */
+  public static final class Reader implements Source {
+    private final FileChannel ch;
+    private final boolean compressed;
+    private final int perBlock;
+    private final long count;
+    private final long[] index;
+    private final byte[] scratch = new byte[81];
+    /* Reused for every compressed block */
+    private final Inflater inflater;
+    private ByteBuffer input;
+
+    /* Currently decoded block */
+    private byte[] block;
+    private long blockNo = -1;
+
+    /* Sequential position */
+    private long position;
+
+    public Reader(final String path) throws IOException {
+      this.ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+      final ByteBuffer header = this.read(0, HEADER_SIZE);
+      if (header.getInt() != MAGIC) {
+        this.ch.close();
+        throw new IOException(path + " is not a binary puzzle file");
+      }
+      if (header.get() != VERSION) {
+        this.ch.close();
+        throw new IOException(path + " has an unsupported version");
+      }
+      this.compressed = (header.get() & FLAG_DEFLATE) != 0;
+      header.getShort();
+      this.perBlock = header.getInt();
+      this.count = header.getLong();
+      final long indexOffset = header.getLong();
+      if (this.compressed) {
+        final int blocks = (int) ((this.count + this.perBlock - 1) / this.perBlock);
+        final ByteBuffer idx = this.read(indexOffset, 8 * (blocks + 1));
+        this.index = new long[blocks + 1];
+        for (int i = 0; i <= blocks; i++) {
+          this.index[i] = idx.getLong();
+        }
+      } else {
+        this.index = null;
+      }
+      this.inflater = this.compressed ? new Inflater() : null;
+    }
+
+    /** Number of records in the file. */
+    public long size() {
+      return this.count;
+    }
+
+    /** Returns the record with the given number. */
+    public String get(final long record) throws IOException {
+      if ((record < 0) || (record >= this.count)) {
+        throw new IndexOutOfBoundsException("Record " + record + " of " + this.count);
+      }
+      this.load(record / this.perBlock);
+      return unpack(this.block, (int) (record % this.perBlock) * RECORD_SIZE, this.scratch);
+    }
+
+    /** Moves the sequential position to the given record number. */
+    public void seek(final long record) {
+      this.position = record;
+    }
+
+    @Override
+    public void skip(final long records) {
+      this.position = Math.min(this.position + records, this.count);
+    }
+
+    @Override
+    public String next() throws IOException {
+      if (this.position >= this.count) {
+        return null;
+      }
+      return this.get(this.position++);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (this.inflater != null) {
+        this.inflater.end();
+      }
+      this.ch.close();
+    }
+
+    /** Decodes a block into the block cache, unless it is already there. */
+    private void load(final long no) throws IOException {
+      if (no == this.blockNo) {
+        return;
+      }
+      final int records = (int) Math.min(this.perBlock, this.count - (no * this.perBlock));
+      final int raw = records * RECORD_SIZE;
+      if ((this.block == null) || (this.block.length < raw)) {
+        this.block = new byte[this.perBlock * RECORD_SIZE];
+      }
+      if (this.compressed) {
+        final long from = this.index[(int) no];
+        final int len = (int) (this.index[(int) no + 1] - from);
+        if ((this.input == null) || (this.input.capacity() < len)) {
+          this.input = ByteBuffer.allocate(Math.max(len, raw + 1024));
+        }
+        this.input.clear().limit(len);
+        this.readFully(from, this.input);
+        this.inflater.reset();
+        this.inflater.setInput(this.input.array(), 0, len);
+        try {
+          int n = 0;
+          while ((n < raw) && !this.inflater.finished()) {
+            final int k = this.inflater.inflate(this.block, n, raw - n);
+            if ((k == 0) && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+              throw new IOException("Truncated block " + no);
+            }
+            n += k;
+          }
+          if (n != raw) {
+            throw new IOException("Truncated block " + no);
+          }
+        } catch (final DataFormatException e) {
+          throw new IOException("Corrupt block " + no, e);
+        }
+      } else {
+        final ByteBuffer data = ByteBuffer.wrap(this.block, 0, raw);
+        this.readFully(HEADER_SIZE + (no * this.perBlock * RECORD_SIZE), data);
+      }
+      this.blockNo = no;
+    }
+
+    private ByteBuffer read(final long pos, final int len) throws IOException {
+      final ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.BIG_ENDIAN);
+      this.readFully(pos, buf);
+      buf.flip();
+      return buf;
+    }
+
+    private void readFully(final long pos, final ByteBuffer buf) throws IOException {
+      long p = pos;
+      while (buf.hasRemaining()) {
+        final int n = this.ch.read(buf, p);
+        if (n < 0) {
+          throw new IOException("Unexpected end of file at " + p);
+        }
+        p += n;
+      }
+    }
+  }
+
+  // ================================================================================
+  // Writer
+  // ================================================================================
+  /** Appends records; the header and the block index are written on {@link #close()}. */
+  public static final class Writer implements Sink {
+    private final FileChannel ch;
+    private final boolean compressed;
+    private final byte[] block = new byte[RECORDS_PER_BLOCK * RECORD_SIZE];
+    private final byte[] deflated = new byte[(RECORDS_PER_BLOCK * RECORD_SIZE) + 1024];
+    private final Deflater deflater;
+    private long[] index = new long[16];
+    private int blocks;
+    private int inBlock;
+    private long count;
+    private long offset = HEADER_SIZE;
+
+    public Writer(final String path, final boolean pcompressed) throws IOException {
+      this(path, pcompressed, -1);
+    }
+
+    /**
+     * Opens a writer that keeps the first {@code resumeAt} records of an existing uncompressed file,
+     * or starts a new file if {@code resumeAt} is negative.
+     */
+    public Writer(final String path, final boolean pcompressed, final long resumeAt)
+        throws IOException {
+      if (pcompressed && (resumeAt >= 0)) {
+        throw new IOException("Compressed outputs can not be resumed: " + path);
+      }
+      this.ch = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.READ);
+      this.compressed = pcompressed;
+      this.deflater = pcompressed ? new Deflater(Deflater.BEST_SPEED) : null;
+      if (pcompressed) {
+        /* Packed cells barely repeat: codes alone are smaller and inflate faster than matches */
+        this.deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+      }
+      if (resumeAt > 0) {
+        /* Keep complete blocks, reload the records of the last partial one */
+        this.count = resumeAt;
+        this.blocks = (int) (resumeAt / RECORDS_PER_BLOCK);
+        this.inBlock = (int) (resumeAt % RECORDS_PER_BLOCK);
+        this.offset = HEADER_SIZE + ((long) this.blocks * RECORDS_PER_BLOCK * RECORD_SIZE);
+        this.ch.truncate(this.offset + ((long) this.inBlock * RECORD_SIZE));
+        final ByteBuffer partial = ByteBuffer.wrap(this.block, 0, this.inBlock * RECORD_SIZE);
+        long p = this.offset;
+        while (partial.hasRemaining()) {
+          final int n = this.ch.read(partial, p);
+          if (n < 0) {
+            throw new IOException(path + " is shorter than " + resumeAt + " records");
+          }
+          p += n;
+        }
+      } else {
+        this.ch.truncate(0);
+      }
+      /* Placeholder, rewritten on close */
+      this.writeHeader(0);
+    }
+
+    @Override
+    public void write(final String grid) throws IOException {
+      pack(grid, this.block, this.inBlock * RECORD_SIZE);
+      this.count++;
+      if (++this.inBlock == RECORDS_PER_BLOCK) {
+        this.flushBlock();
+      }
+    }
+
+    /** Writes the records of the current partial block and the record count; not compressed. */
+    @Override
+    public long commit() throws IOException {
+      if (this.compressed) {
+        throw new IOException("Compressed outputs can not be committed before close");
+      }
+      this.writeFully(this.offset, ByteBuffer.wrap(this.block, 0, this.inBlock * RECORD_SIZE));
+      this.writeHeader(0);
+      this.ch.force(false);
+      return this.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (this.inBlock > 0) {
+          this.flushBlock();
+        }
+        long indexOffset = 0;
+        if (this.compressed) {
+          indexOffset = this.offset;
+          final ByteBuffer idx = ByteBuffer.allocate(8 * (this.blocks + 1));
+          for (int i = 0; i < this.blocks; i++) {
+            idx.putLong(this.index[i]);
+          }
+          idx.putLong(this.offset);
+          idx.flip();
+          this.writeFully(this.offset, idx);
+          this.deflater.end();
+        }
+        this.writeHeader(indexOffset);
+      } finally {
+        this.ch.close();
+      }
+    }
+
+    private void flushBlock() throws IOException {
+      final int raw = this.inBlock * RECORD_SIZE;
+      ByteBuffer data = ByteBuffer.wrap(this.block, 0, raw);
+      if (this.compressed) {
+        if (this.blocks == this.index.length) {
+          this.index = Arrays.copyOf(this.index, this.blocks * 2);
+        }
+        this.index[this.blocks] = this.offset;
+        this.deflater.reset();
+        this.deflater.setInput(this.block, 0, raw);
+        this.deflater.finish();
+        int n = 0;
+        while (!this.deflater.finished()) {
+          n += this.deflater.deflate(this.deflated, n, this.deflated.length - n);
+        }
+        data = ByteBuffer.wrap(this.deflated, 0, n);
+      }
+      this.offset += this.writeFully(this.offset, data);
+      this.blocks++;
+      this.inBlock = 0;
+    }
+
+    private void writeHeader(final long indexOffset) throws IOException {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).put(VERSION).put(this.compressed ? FLAG_DEFLATE : 0).putShort((short) 0)
+          .putInt(RECORDS_PER_BLOCK).putLong(this.count).putLong(indexOffset);
+      header.flip();
+      this.writeFully(0, header);
+    }
+
+    private int writeFully(final long pos, final ByteBuffer buf) throws IOException {
+      final int len = buf.remaining();
+      long p = pos;
+      while (buf.hasRemaining()) {
+        p += this.ch.write(buf, p);
+      }
+      return len;
+    }
+  }
+
+  private PuzzleFile() {
+  }
+}
@@ -1,15 +1,16 @@
 import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 
 public class SAT {
 
-	private static final String MINISAT_INPUT_FILE = "minisat_input.txt";
-	private static final String MINISAT_OUTPUT_FILE = "minisat_output.txt";
+	/* File names inside the directory of each MINISAT worker */
+	static final String MINISAT_INPUT_FILE = "minisat_input.txt";
+	static final String MINISAT_OUTPUT_FILE = "minisat_output.txt";
 
-	private static void diff(final int i, final int j, final int i2, final int j2) throws IOException {
+	private static int diff(final StringBuilder sb, final int i, final int j, final int i2, final int j2) {
+		int clauses = 0;
 		/* The two variables (i, j) and (i2, j2) can't have same values */
 		for (int k = 1; k <= 9; k++) {
 			/* Constraint for each value */
@@ -18,76 +19,121 @@ public class SAT {
 			clauses++;
 
 		}
+		return clauses;
 	}
 
 	/**
-	 * Solves sudoku using MINISAT
+	 * Solves sudoku using MINISAT, running several MINISAT processes at once through a
+	 * {@link MiniSatPool}. Solutions are written in input order and progress is checkpointed by
+	 * {@link BatchRunner}.
 	 * 
 	 * @param args
-	 *            <input-file> <output-file> <minisat-binary>
+	 *            <input-file> <output-file> <minisat-binary> [workers] [timeout-seconds], either
+	 *            file may be in the binary {@link PuzzleFile} format
 	 */
 	public static void main(final String[] args) throws IOException, InterruptedException {
-		/* input and output */
-		final BufferedReader in = new BufferedReader(new FileReader(args[0]));
+		if (args.length < 3) {
+			System.out.println("There should be three input arguments in the format:\n"
+					+ "\t<input file> <output file> <minisat binary> [workers] [timeout seconds]");
+			return;
+		}
+		final int workers = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+		final long timeout = args.length > 4 ? Long.parseLong(args[4]) : 0;
 
-		/* reading file and solving, then printing it */
-		String line = null;
+		/* Time */
+		final long t0 = System.currentTimeMillis();
 
-		FileWriter fw = new FileWriter(args[1]);
-		while ((line = in.readLine()) != null) {
-			/* create file to be fed to MiNISAT */
-			writeMiniSATInput(line);
-			/* Run MINISAT */
-			String[] args1 = new String[] { args[2], MINISAT_INPUT_FILE, MINISAT_OUTPUT_FILE };
-			new ProcessBuilder(args1).start()
-				.waitFor();
-			/*Parse MINISAT output*/
-			readMiniSAToutput(fw);
+		/* reading file and solving, then printing it */
+		final BatchRunner runner = new BatchRunner(args[0], args[1], workers,
+				BatchRunner.DEFAULT_CHECKPOINT_INTERVAL);
+		try (MiniSatPool pool = new MiniSatPool(args[2], workers, timeout * 1000)) {
+			runner.run(engine(pool));
+		}
+		if (runner.resumedFrom() > 0) {
+			System.out.println("Resumed after " + runner.resumedFrom() + " puzzle(s).");
 		}
-		/* Close File Streams */
-		in.close();
-		fw.close();
+
+		/* Time Calculation */
+		double sec = (double) (System.currentTimeMillis() - t0) / 1000;
+		final int min = (int) (sec / 60);
+		sec -= 60 * min;
+		System.out.println("Took " + min + " minute(s) and " + sec + " second(s).");
 	}
 
-	private static void readMiniSAToutput(FileWriter fw) throws IOException {
-		/* Read output of MINISAT */
-		final BufferedReader in = new BufferedReader(new FileReader(MINISAT_OUTPUT_FILE));
+	/** Returns an engine that solves every puzzle with MINISAT through the pool. */
+	static BatchRunner.Engine engine(final MiniSatPool pool) {
+		return puzzle -> {
+			final SolverEvents.Solve event = new SolverEvents.Solve();
+			event.begin();
+			final String solution = pool.solve(puzzle);
+			event.end();
+			if (event.shouldCommit()) {
+				event.engine = "SAT";
+				event.puzzle = puzzle;
+				event.solved = solution != null;
+				event.commit();
+			}
+			return solution;
+		};
+	}
+
+	/**
+	 * Reads the output of MINISAT and returns the row-rasterized solution, or {@code null} if
+	 * MINISAT found none.
+	 * 
+	 * @param mapping
+	 *            The preprocessor that wrote the CNF, or {@code null} for the full encoding of
+	 *            {@link #writeMiniSATInput}
+	 */
+	static String readMiniSATOutput(final BufferedReader in, final CnfPreprocessor mapping) throws IOException {
 		String line = null;
 		if ((line = in.readLine()) != null) {
 			/* If no solution found by MINISAT */
 			if (line.contains("UNSAT")) {
-				System.out.println("Could not solve!");
-				in.close();
-				return;
+				return null;
 			}
 		}
 		if ((line = in.readLine()) != null) {
-
-			fw.write(
-					/*Parse the true booleans*/
-					parse(
-							/* Split booleans in the line */
-							Arrays.stream(line.split(" "))
-								/*Convert to int from string*/
-								.mapToInt(Integer::parseInt)
-								/*Take positive ones, because 0 is line ending and negative ones are false*/
-								.filter(i -> i > 0)
-								/*Convert to Array*/
-								.toArray())
-							+ "\n");
+			/*Parse the true booleans*/
+			return parse(
+					/* Split booleans in the line */
+					Arrays.stream(line.split(" "))
+						/*Convert to int from string*/
+						.mapToInt(Integer::parseInt)
+						/*Take positive ones, because 0 is line ending and negative ones are false*/
+						.filter(i -> i > 0)
+						/*Convert to Array*/
+						.toArray(), mapping);
 		}
-		in.close();
+		return null;
 	}
 
-	private static String parse(int[] array) {
+	/**
+	 * Returns the row-rasterized solution of the true variables of a model, mapped back to cells and
+	 * values by the preprocessor, or by the inverse of {@link #val} if {@code mapping} is {@code null}.
+	 */
+	static String parse(final int[] array, final CnfPreprocessor mapping) {
 		int[][] grid = new int[9][9];
-		/* Find inverse mapping of val, i.e. finding row, col, val s.t. val(row, col, val) = ind */
-		for (int ind : array) {
-			int val = (ind - 1) % 9 + 1;
-			int col = (ind - val) / 9 % 9;
-			int row = (ind - val) / 9 / 9;
-			/* Implement this constraint */
-			grid[row][col] = val;
+		if (mapping == null) {
+			/* Find inverse mapping of val, i.e. finding row, col, val s.t. val(row, col, val) = ind */
+			for (int ind : array) {
+				int val = (ind - 1) % 9 + 1;
+				int col = (ind - val) / 9 % 9;
+				int row = (ind - val) / 9 / 9;
+				/* Implement this constraint */
+				grid[row][col] = val;
+			}
+		} else {
+			/* Cells fixed by preprocessing, then the cells of the true variables */
+			final int[] cells = mapping.fixed();
+			for (int ind : array) {
+				if (ind <= mapping.variables()) {
+					cells[mapping.cell(ind)] = mapping.value(ind);
+				}
+			}
+			for (int i = 0; i < 81; i++) {
+				grid[i / 9][i % 9] = cells[i];
+			}
 		}
 		/* Convert to row-rasterized form */
 		String out = "";
@@ -99,16 +145,15 @@ public class SAT {
 		return out;
 	}
 
-	private static StringBuilder sb;
-	private static int clauses = 0;
-
-	private static void writeMiniSATInput(String line) throws IOException {
-		/* Input file fed to minisat */
-		final FileWriter fw = new FileWriter(MINISAT_INPUT_FILE);
+	/**
+	 * Writes the full CNF of a puzzle, all 729 variables with comments, in the DIMACS format read by
+	 * MINISAT. {@link MiniSatPool} writes the smaller CNF of {@link CnfPreprocessor} instead.
+	 */
+	static void writeMiniSATInput(final String line, final Writer fw) throws IOException {
 		/* StriBuilder to write to that file */
-		sb = new StringBuilder();
+		final StringBuilder sb = new StringBuilder();
 		/* Total clauses occured */
-		clauses = 0;
+		int clauses = 0;
 		/* Initial Processing Grid */
 		for (int r = 0; r < 9; r++) {
 			for (int c = 0; c < 9; c++) {
@@ -153,13 +198,16 @@ public class SAT {
 				/* Cell 2 */
 				for (int r2 = 0; r2 < 9; r2++) {
 					for (int c2 = 0; c2 < 9; c2++) {
-						/* unordered pairs, so WLOG assume r1<=r2 & c1<=c2, also both different */
-						if ((r1 > r2) || (c1 > c2) || (r1 == r2 && c1 == c2)) {
+						/*
+						 * unordered pairs, so WLOG assume cell 1 comes first row-wise, also both different
+						 * (r1<=r2 & c1<=c2 would miss box pairs such as (0,2) and (1,0))
+						 */
+						if ((9 * r1) + c1 >= (9 * r2) + c2) {
 							continue;
 						}
 						/* If they have same row or column or same box */
 						if ((r1 == r2) || (c1 == c2) || (((r1 / 3) == (r2 / 3)) && ((c1 / 3) == (c2 / 3)))) {
-							diff(r1, c1, r2, c2);
+							clauses += diff(sb, r1, c1, r2, c2);
 						}
 					}
 				}
@@ -169,7 +217,6 @@ public class SAT {
 		fw.write("p cnf " + 729 + " " + clauses + "\n");
 		/* Remaining clauses and comments */
 		fw.write(sb.toString());
-		fw.close();
 	}
 
 	/**
@@ -0,0 +1,315 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estimates the size of the search tree of a puzzle before solving it, to schedule batches.
+ *
+ * <p>
+ * A probe walks from the root of the search tree to a leaf, at every node taking the variable the
+ * heuristic assigns next ({@link SudokuSolver#nextVariable}) and a random one of the values it
+ * would try ({@link SudokuSolver#nextValues}), assigned by {@link SudokuSolver#descend}, so one
+ * solver follows the whole probe, with the domains its search would have at every node, e.g. those
+ * reduced by arc consistency for heuristic 3. If the nodes on the path have d<sub>1</sub>,
+ * d<sub>2</sub>, ... children, then 1 + d<sub>1</sub> + d<sub>1</sub>d<sub>2</sub> + ... is an
+ * unbiased estimate of the number of nodes of the tree (Knuth, 1975), and the average over a few
+ * probes is the estimate. It is an estimate of the whole tree, while the search stops at the first
+ * solution, so it is an upper bound rather than a prediction; ranking puzzles by it is what the
+ * scheduler needs. The bit mask engine is estimated with the ordering of heuristic 1 (MRV).
+ *
+ * <p>
+ * With {@link #schedule}, {@link BatchRunner#prioritize} starts the most expensive puzzles of its
+ * window first, so hard puzzles near the end of an input do not run alone while the other threads
+ * are idle, and {@link #engine} splits puzzles far above the average into one sub-puzzle per value
+ * of their first variable, solved in parallel.
+ */
+public class SearchCostEstimator {
+
+  // ================================================================================
+  // Static Variables
+  // ================================================================================
+  public static final int DEFAULT_PROBES = 16;
+
+  /** A puzzle is split if its estimate is this many times the geometric mean of the estimates. */
+  private static final double SPLIT_RATIO = 30;
+  /** Estimates needed before the mean is trusted. */
+  private static final int SPLIT_AFTER = 16;
+
+  /** The heuristic whose ordering the bit mask engine is estimated with. */
+  private static final int BIT_MASK_ORDERING = 1;
+
+  // ================================================================================
+  // Other Variables
+  // ================================================================================
+  private final int heuristic;
+  private final int probes;
+  private final long seed;
+
+  /* Estimates of the scheduled puzzles, until they are solved */
+  private final Map<String, Double> estimates = new ConcurrentHashMap<>();
+  /* Sum of the base 10 logarithms of all estimates, and their number */
+  private final DoubleAdder logSum = new DoubleAdder();
+  private final LongAdder count = new LongAdder();
+
+  public SearchCostEstimator(final int pheuristic, final int pprobes, final long pseed) {
+    this.heuristic = pheuristic;
+    this.probes = Math.max(1, pprobes);
+    this.seed = pseed;
+  }
+
+  // ================================================================================
+  // Main
+  // ================================================================================
+  /**
+   * Prints the estimated and the actual number of nodes of every puzzle of a file.
+   *
+   * @param args
+   *          Input File, Heuristic Id (0 to 3), optionally the number of probes and the seed
+   * @throws IOException
+   *           if the input file could not be read.
+   */
+  public static void main(final String[] args) throws IOException {
+    int heuristic = -1;
+    if ((args.length < 2) || ((heuristic = Integer.parseInt(args[1])) < 0) || (heuristic > 3)) {
+      System.out.println("There should be at least two input arguments in the format:\n"
+          + "\t<input file> <heuristic id 0-3> [probes] [seed]");
+      return;
+    }
+    final int probes = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PROBES;
+    final long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+    final SearchCostEstimator estimator = new SearchCostEstimator(heuristic, probes, seed);
+
+    final List<double[]> rows = new ArrayList<>();
+    long estimateNanos = 0;
+    long solveNanos = 0;
+    System.out.printf("%6s %14s %14s %10s%n", "Line", "Estimated", "Actual", "Ratio");
+    try (PuzzleFile.Source in = PuzzleFile.openSource(args[0])) {
+      String line = null;
+      while ((line = in.next()) != null) {
+        final long t0 = System.nanoTime();
+        final double estimated = estimator.estimate(line);
+        final long t1 = System.nanoTime();
+        final SudokuSolver solver = SudokuSolver.create(heuristic, line);
+        solver.solve();
+        final long t2 = System.nanoTime();
+        estimateNanos += t1 - t0;
+        solveNanos += t2 - t1;
+        rows.add(new double[] { estimated, solver.nodes });
+        System.out.printf("%6d %,14.0f %,14d %10.2f%n", rows.size(), estimated, solver.nodes,
+            estimated / solver.nodes);
+      }
+    }
+    if (rows.isEmpty()) {
+      return;
+    }
+
+    /* Accuracy: rank correlation, typical error, and how many of the hardest are found */
+    final double[] estimated = new double[rows.size()];
+    final double[] actual = new double[rows.size()];
+    final double[] errors = new double[rows.size()];
+    for (int i = 0; i < rows.size(); i++) {
+      estimated[i] = rows.get(i)[0];
+      actual[i] = rows.get(i)[1];
+      errors[i] = Math.abs(Math.log10(estimated[i] / actual[i]));
+    }
+    Arrays.sort(errors);
+    final double[] estimatedRanks = ranks(estimated);
+    final double[] actualRanks = ranks(actual);
+    final int top = Math.max(1, rows.size() / 10);
+    int found = 0;
+    for (int i = 0; i < rows.size(); i++) {
+      if ((estimatedRanks[i] >= (rows.size() - top)) && (actualRanks[i] >= (rows.size() - top))) {
+        found++;
+      }
+    }
+    System.out.printf("Rank correlation of estimated and actual nodes: %.3f%n",
+        correlation(estimatedRanks, actualRanks));
+    System.out.printf("Median error: %.2f orders of magnitude%n", errors[errors.length / 2]);
+    System.out.printf("Hardest %d puzzle(s) among the %d highest estimates: %d%n", top, top, found);
+    System.out.printf("Estimating took %.3f second(s), solving %.3f second(s).%n",
+        estimateNanos / 1e9, solveNanos / 1e9);
+  }
+
+  /** Returns the rank of every value, from 0, ties in input order. */
+  private static double[] ranks(final double[] values) {
+    final Integer[] order = new Integer[values.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+    final double[] ranks = new double[values.length];
+    for (int r = 0; r < order.length; r++) {
+      ranks[order[r]] = r;
+    }
+    return ranks;
+  }
+
+  /** Pearson correlation; of ranks, it is Spearman's rank correlation. */
+  private static double correlation(final double[] x, final double[] y) {
+    double mx = 0;
+    double my = 0;
+    for (int i = 0; i < x.length; i++) {
+      mx += x[i] / x.length;
+      my += y[i] / y.length;
+    }
+    double sxy = 0;
+    double sxx = 0;
+    double syy = 0;
+    for (int i = 0; i < x.length; i++) {
+      sxy += (x[i] - mx) * (y[i] - my);
+      sxx += (x[i] - mx) * (x[i] - mx);
+      syy += (y[i] - my) * (y[i] - my);
+    }
+    return (sxx == 0) || (syy == 0) ? 0 : sxy / Math.sqrt(sxx * syy);
+  }
+
+  // ================================================================================
+  // Estimation
+  // ================================================================================
+  /**
+   * Estimates the number of nodes of the search tree of a puzzle. The probes of a puzzle depend
+   * only on the seed and the puzzle, so the estimate does not depend on the order of the calls.
+   */
+  public double estimate(final String puzzle) {
+    final int ordering = this.heuristic == 4 ? BIT_MASK_ORDERING : this.heuristic;
+    final Random random = new Random(this.seed ^ puzzle.hashCode());
+    final int[] values = new int[9];
+    double sum = 0;
+    for (int p = 0; p < this.probes; p++) {
+      /* The solver follows the probe down the tree */
+      final SudokuSolver solver = SudokuSolver.create(ordering, puzzle);
+      double nodes = 1;
+      double width = 1;
+      while (true) {
+        final SudokuSolver.Variable var = solver.nextVariable();
+        final int d = var == null ? 0 : solver.nextValues(var, values);
+        if (d == 0) {
+          /* Solution or dead end */
+          break;
+        }
+        width *= d;
+        nodes += width;
+        solver.descend(var, values[random.nextInt(d)]);
+      }
+      sum += nodes;
+    }
+    return sum / this.probes;
+  }
+
+  /**
+   * Estimates a puzzle for {@link BatchRunner#prioritize} and keeps the estimate until
+   * {@link #engine} solves the puzzle.
+   */
+  public double schedule(final String puzzle) {
+    final double estimate = this.estimate(puzzle);
+    this.estimates.put(puzzle, estimate);
+    this.logSum.add(Math.log10(estimate));
+    this.count.increment();
+    return estimate;
+  }
+
+  // ================================================================================
+  // Solving
+  // ================================================================================
+  /**
+   * Returns an engine that solves like {@link SudokuSolver#engine}, but splits the puzzles whose
+   * {@link #schedule} estimate is far above the geometric mean of all estimates so far, see
+   * {@link #solveSplit}.
+   * Puzzles are only split for heuristics 0 to 3.
+   */
+  public BatchRunner.Engine engine(final LongAdder backTracks) {
+    final BatchRunner.Engine plain = SudokuSolver.engine(this.heuristic, backTracks);
+    if (this.heuristic == 4) {
+      return plain;
+    }
+    return puzzle -> {
+      final Double estimate = this.estimates.remove(puzzle);
+      final long n = this.count.sum();
+      if ((estimate == null) || (n < SPLIT_AFTER)
+          || (Math.log10(estimate) < ((this.logSum.sum() / n) + Math.log10(SPLIT_RATIO)))) {
+        return plain.solve(puzzle);
+      }
+      return solveSplit(this.heuristic, puzzle, ForkJoinPool.commonPool(), backTracks);
+    };
+  }
+
+  /**
+   * Solves a puzzle by splitting the root of its search: the variable the heuristic assigns first
+   * is fixed to each of the values it would try, giving one sub-puzzle per value, and the
+   * sub-puzzles are solved in parallel. Once one is solved, the sub-puzzles after it in value order
+   * are cancelled; the solution of the first solved one in value order is returned, so the result
+   * does not depend on timing.
+   *
+   * @return the row-rasterized solution, or {@code null} if the puzzle has none.
+   */
+  public static String solveSplit(final int heuristic, final String puzzle,
+      final ExecutorService pool, final LongAdder backTracks)
+      throws InterruptedException, ExecutionException {
+    final SudokuSolver root = SudokuSolver.create(heuristic, puzzle);
+    final SudokuSolver.Variable var = root.nextVariable();
+    if (var == null) {
+      return root.solve() ? root.solution() : null;
+    }
+    final int[] values = new int[9];
+    final int d = root.nextValues(var, values);
+    final SudokuSolver[] solvers = new SudokuSolver[d];
+    for (int i = 0; i < d; i++) {
+      final char[] grid = puzzle.toCharArray();
+      grid[(9 * var.row) + var.col] = (char) ('0' + values[i]);
+      solvers[i] = SudokuSolver.create(heuristic, new String(grid));
+    }
+    final List<Future<Boolean>> parts = new ArrayList<>();
+    for (int i = 0; i < d; i++) {
+      final int index = i;
+      parts.add(pool.submit(() -> {
+        final boolean solved = solvers[index].solve();
+        if (solved) {
+          for (int k = index + 1; k < solvers.length; k++) {
+            solvers[k].cancel();
+          }
+        }
+        return solved;
+      }));
+    }
+    String solution = null;
+    for (int i = 0; (i < d) && (solution == null); i++) {
+      try {
+        if (parts.get(i).get()) {
+          solution = solvers[i].solution();
+        }
+      } catch (final ExecutionException e) {
+        if (!(e.getCause() instanceof CancellationException)) {
+          throw e;
+        }
+      }
+    }
+    /* Stop the rest, then count what every part did */
+    for (final SudokuSolver solver : solvers) {
+      solver.cancel();
+    }
+    for (int i = 0; i < d; i++) {
+      try {
+        parts.get(i).get();
+      } catch (final ExecutionException e) {
+        /* Cancelled, or already reported */
+      }
+      backTracks.add(solvers[i].backTracks);
+    }
+    /* The root itself backtracks if no part had a solution */
+    if (solution == null) {
+      backTracks.increment();
+    }
+    return solution;
+  }
+}
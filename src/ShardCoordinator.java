@@ -0,0 +1,285 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Solves a puzzle file with several worker processes, using the file system as shared storage.
+ *
+ * <p>
+ * The input is split into shards, byte ranges starting at a line start of a text file or record
+ * ranges of a binary one (see {@link PuzzleFile#split}). Every shard is solved by a separate JVM
+ * running this class in worker mode, which writes {@code <output>.shard-<k>} through a
+ * {@link BatchRunner}, so a restarted worker continues from the checkpoint of the failed one, and
+ * finally {@code <output>.shard-<k>.stats} with its number of solutions, backtracks and time (of
+ * its last attempt only, if it was restarted). Both the checkpoint and the statistics record the
+ * input path, size and modification time, the range of the shard and the engine. A shard counts as
+ * done once its statistics exist and match, which lets a restarted coordinator skip the shards of
+ * an earlier run of the same split; the state of a shard that does not match, e.g. of another
+ * input or number of shards, is deleted and the shard solved again. A worker that crashes or is
+ * killed is started again up to a number of retries; one that finds an unsolvable puzzle is not.
+ * Once every shard is done, the shard outputs are merged into the output in shard order, so the
+ * output is the same as that of a single process, and the shard files are removed.
+ */
+public class ShardCoordinator {
+
+  // ================================================================================
+  // Static Variables
+  // ================================================================================
+  private static final String SHARD_SUFFIX = ".shard-";
+  private static final String STATS_SUFFIX = ".stats";
+  private static final String LOG_SUFFIX = ".log";
+
+  /* Added to the workers if this JVM has it */
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+  /** Default MINISAT binary of the {@code SAT} engine. */
+  private static final String MINISAT = "minisat_static";
+
+  /** Exit status of a worker that found an unsolvable puzzle, not worth a retry. */
+  private static final int EXIT_UNSOLVABLE = 2;
+
+  // ================================================================================
+  // Main
+  // ================================================================================
+  /**
+   * Solves an input file with worker processes, or runs a single worker.
+   *
+   * @param args
+   *          Input File, Output File, Engine (a heuristic id of {@link SudokuSolver}, or
+   *          {@code SAT} or {@code SAT:<minisat binary>}), optionally the number of worker
+   *          processes (default: available processors), shards (default: 4 per worker) and retries
+   *          of a failed shard (default 2)
+   * @throws IOException
+   *           if a file could not be read or written, or a worker could not be started.
+   */
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    if ((args.length > 0) && "worker".equals(args[0])) {
+      System.exit(worker(args));
+    }
+    if (args.length < 3) {
+      System.out.println("There should be at least three input arguments in the format:\n"
+          + "\t<input file> <output file> <heuristic id | SAT[:minisat binary]> [workers] [shards]"
+          + " [retries]");
+      return;
+    }
+    if (!args[2].startsWith("SAT")) {
+      final int heuristic = Integer.parseInt(args[2]);
+      if ((heuristic < 0) || (heuristic > 4)) {
+        System.out.println("Heuristic id must be from 0 to 4.");
+        return;
+      }
+    }
+    final int workers =
+        args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+    final int shards = args.length > 4 ? Integer.parseInt(args[4]) : workers * 4;
+    final int retries = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+
+    /* Time */
+    final long t0 = System.currentTimeMillis();
+
+    final long[] bounds = PuzzleFile.split(args[0], Math.max(1, shards));
+    final int n = bounds.length - 1;
+    System.out.println("Solving " + n + " shard(s) with " + workers + " worker(s).");
+    /* Shards beyond this split are left from an earlier run with more shards */
+    for (int k = n; deleteShard(args[1], k); k++) {
+      /* next */
+    }
+
+    /* Every thread runs one worker process at a time */
+    final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers));
+    final List<Future<long[]>> results = new ArrayList<>();
+    for (int k = 0; k < n; k++) {
+      final int shard = k;
+      results.add(pool.submit(() -> solveShard(args[0], args[1], args[2], shard, bounds[shard],
+          bounds[shard + 1], retries)));
+    }
+    pool.shutdown();
+
+    /* Sum the statistics in shard order */
+    final long[] total = new long[3];
+    final List<Integer> failed = new ArrayList<>();
+    for (int k = 0; k < n; k++) {
+      long[] stats = null;
+      try {
+        stats = results.get(k).get();
+      } catch (final ExecutionException e) {
+        System.out.println("Shard " + k + ": " + e.getCause());
+      }
+      if (stats == null) {
+        failed.add(k);
+      } else {
+        for (int i = 0; i < total.length; i++) {
+          total[i] += stats[i];
+        }
+      }
+    }
+    if (!failed.isEmpty()) {
+      System.out.println("Failed shard(s) " + failed + ", see " + args[1] + SHARD_SUFFIX
+          + "<k>" + LOG_SUFFIX + ". Rerun to retry them; finished shards are kept.");
+      System.exit(1);
+    }
+    merge(args[1], n);
+
+    /* Time Calculation */
+    double sec = (double) (System.currentTimeMillis() - t0) / 1000;
+    final int min = (int) (sec / 60);
+    sec -= 60 * min;
+    final NumberFormat format = NumberFormat.getNumberInstance(Locale.US);
+    System.out.println("Solved " + format.format(total[0]) + " puzzle(s).");
+    System.out.println("Took " + min + " minute(s) and " + sec + " second(s), "
+        + format.format(total[2] / 1000.0) + " second(s) in the workers.");
+    if (!args[2].startsWith("SAT")) {
+      System.out.println("Total backtracks: " + format.format(total[1]) + ".");
+    }
+  }
+
+  // ================================================================================
+  // Coordinator
+  // ================================================================================
+  /**
+   * Runs a worker process for a shard until it succeeds or the retries are used up.
+   *
+   * @return the statistics of the shard, or {@code null} if it failed.
+   */
+  private static long[] solveShard(final String input, final String output, final String engine,
+      final int shard, final long from, final long to, final int retries)
+      throws IOException, InterruptedException {
+    final String shardOutput = shardPath(output, shard);
+    final Path stats = Paths.get(shardOutput + STATS_SUFFIX);
+    final Path log = Paths.get(shardOutput + LOG_SUFFIX);
+    /* Keep the state of an earlier run only if it is of the same input, range and engine */
+    final BatchRunner runner = runner(input, shardOutput, from, to, engine);
+    final String identity = runner.identity();
+    if (!runner.checkpointMatches() || (Files.exists(stats) && !identity.equals(identity(stats)))) {
+      deleteShard(output, shard);
+    }
+    for (int attempt = 0; !Files.exists(stats) && (attempt <= retries); attempt++) {
+      final List<String> command = new ArrayList<>();
+      command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+      /* Workers propagate on vectors too if this JVM does, see LockstepPropagator */
+      if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+        command.addAll(Arrays.asList("--add-modules", VECTOR_MODULE));
+      }
+      command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+          ShardCoordinator.class.getName(), "worker", input, Long.toString(from), Long.toString(to),
+          shardOutput, engine));
+      final Process process = new ProcessBuilder(command).redirectErrorStream(true)
+          .redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile())).start();
+      final int status = process.waitFor();
+      if (status == EXIT_UNSOLVABLE) {
+        break;
+      }
+      if ((status != 0) && (attempt < retries)) {
+        System.out.println("Shard " + shard + " exited with status " + status + ", retrying.");
+      }
+    }
+    if (!Files.exists(stats)) {
+      return null;
+    }
+    final String[] fields = Files.readAllLines(stats, StandardCharsets.US_ASCII).get(0).split(" ");
+    final long[] values = new long[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      values[i] = Long.parseLong(fields[i]);
+    }
+    return values;
+  }
+
+  /** Concatenates the shard outputs in shard order and removes the shard files. */
+  private static void merge(final String output, final int shards) throws IOException {
+    try (PuzzleFile.Sink out = PuzzleFile.openSink(output)) {
+      for (int k = 0; k < shards; k++) {
+        try (PuzzleFile.Source in = PuzzleFile.openSource(shardPath(output, k))) {
+          String grid = null;
+          while ((grid = in.next()) != null) {
+            out.write(grid);
+          }
+        }
+      }
+    }
+    for (int k = 0; k < shards; k++) {
+      deleteShard(output, k);
+    }
+  }
+
+  /** Deletes the files of a shard; returns whether there were any. */
+  private static boolean deleteShard(final String output, final int shard) throws IOException {
+    final String path = shardPath(output, shard);
+    boolean deleted = false;
+    for (final String suffix : new String[] { "", STATS_SUFFIX, LOG_SUFFIX,
+        BatchRunner.CHECKPOINT_SUFFIX }) {
+      deleted |= Files.deleteIfExists(Paths.get(path + suffix));
+    }
+    return deleted;
+  }
+
+  /** Returns the lines of a statistics file after the first, which identify the shard. */
+  private static String identity(final Path stats) throws IOException {
+    final List<String> lines = Files.readAllLines(stats, StandardCharsets.US_ASCII);
+    return String.join("\n", lines.subList(Math.min(1, lines.size()), lines.size()));
+  }
+
+  /** Returns the runner of a shard, its checkpoint tagged with the engine. */
+  private static BatchRunner runner(final String input, final String shardOutput, final long from,
+      final long to, final String engine) {
+    final BatchRunner runner = new BatchRunner(input, shardOutput, 1,
+        BatchRunner.DEFAULT_CHECKPOINT_INTERVAL, from, to);
+    runner.tag(engine);
+    return runner;
+  }
+
+  /** Shard outputs of binary outputs are uncompressed binary, so they can be checkpointed. */
+  private static String shardPath(final String output, final int shard) {
+    final boolean binary = output.endsWith(PuzzleFile.EXTENSION)
+        || output.endsWith(PuzzleFile.EXTENSION_COMPRESSED);
+    return output + SHARD_SUFFIX + shard + (binary ? PuzzleFile.EXTENSION : "");
+  }
+
+  // ================================================================================
+  // Worker
+  // ================================================================================
+  /**
+   * Solves one shard: {@code worker <input> <from> <to> <shard output> <engine>}.
+   *
+   * @return the exit status: 0 if solved, {@link #EXIT_UNSOLVABLE} if a puzzle could not be solved.
+   */
+  private static int worker(final String[] args) throws IOException, InterruptedException {
+    final long t0 = System.currentTimeMillis();
+    final String shardOutput = args[4];
+    final String engine = args[5];
+    final BatchRunner runner =
+        runner(args[1], shardOutput, Long.parseLong(args[2]), Long.parseLong(args[3]), engine);
+    final LongAdder backTracks = new LongAdder();
+    final boolean solved;
+    if (engine.startsWith("SAT")) {
+      final String binary = engine.startsWith("SAT:") ? engine.substring(4) : MINISAT;
+      try (MiniSatPool pool = new MiniSatPool(new File(binary).getAbsolutePath(), 1, 0)) {
+        solved = runner.run(SAT.engine(pool));
+      }
+    } else if (engine.equals("4")) {
+      solved = runner.run(SudokuSolver.lockstepEngine(backTracks), LockstepPropagator.LANES);
+    } else {
+      solved = runner.run(SudokuSolver.engine(Integer.parseInt(engine), backTracks));
+    }
+    if (!solved) {
+      return EXIT_UNSOLVABLE;
+    }
+    /* Written last and atomically: the shard is done once this file exists */
+    BatchRunner.writeAtomically(Paths.get(shardOutput + STATS_SUFFIX), runner.records() + " "
+        + backTracks.sum() + " " + (System.currentTimeMillis() - t0) + "\n" + runner.identity()
+        + "\n");
+    return 0;
+  }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Checks solution files against their puzzle files.
+ *
+ * <p>
+ * A solution is valid if it keeps every given of its puzzle and every row, column and box holds
+ * each value from 1 to 9 once, which is checked with one bit mask per unit. Both files are read
+ * side by side in chunks, so memory does not grow with the files, and the lines of a chunk are
+ * checked in parallel while the next chunk is read. Invalid lines are handed to a callback in line
+ * order.
+ */
+public class SolutionVerifier {
+
+  // ================================================================================
+  // Internal Classes
+  // ================================================================================
+  /** An invalid line of a solution file. */
+  public static class Mismatch {
+    /** Line number, from 1. */
+    public final long line;
+    /** Why the solution is not valid, see {@link SolutionVerifier#check}. */
+    public final String reason;
+
+    public Mismatch(final long pline, final String preason) {
+      this.line = pline;
+      this.reason = preason;
+    }
+
+    @Override
+    public String toString() {
+      return "Line " + this.line + ": " + this.reason;
+    }
+  }
+
+  // ================================================================================
+  // Static Variables
+  // ================================================================================
+  /** Pairs of lines read and checked at a time. */
+  private static final int CHUNK = 1 << 14;
+
+  // ================================================================================
+  // Main
+  // ================================================================================
+  /**
+   * Verifies a solution file, printing every invalid line.
+   *
+   * @param args
+   *          Input File, Solution File and optionally the number of threads (default: available
+   *          processors). Either file may be in the binary {@link PuzzleFile} format.
+   * @throws IOException
+   *           if a file could not be read.
+   */
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.out.println("There should be two input arguments in the format:\n"
+          + "\t<input file> <solution file> [threads]");
+      return;
+    }
+    final int threads =
+        args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    final long t0 = System.currentTimeMillis();
+    final long[] invalid = new long[1];
+    final long lines = verify(args[0], args[1], threads, mismatch -> {
+      System.out.println(mismatch);
+      invalid[0]++;
+    });
+    final double sec = (double) (System.currentTimeMillis() - t0) / 1000;
+    System.out.println("Checked " + lines + " line(s) in " + sec + " second(s), " + invalid[0]
+        + " invalid.");
+    if (invalid[0] > 0) {
+      System.exit(1);
+    }
+  }
+
+  // ================================================================================
+  // Verification
+  // ================================================================================
+  /**
+   * Verifies a solution file against its puzzle file.
+   *
+   * @param mismatches
+   *          receives every invalid line, in line order and on the calling thread
+   * @return the number of lines checked.
+   */
+  public static long verify(final String puzzles, final String solutions, final int threads,
+      final Consumer<? super Mismatch> mismatches) throws IOException, InterruptedException {
+    final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    long lines = 0;
+    try (PuzzleFile.Source in = PuzzleFile.openSource(puzzles);
+        PuzzleFile.Source sol = PuzzleFile.openSource(solutions)) {
+      List<Future<List<Mismatch>>> checking = null;
+      boolean more = true;
+      while (more || (checking != null)) {
+        /* Read the next chunk while the previous one is checked */
+        final String[] puzzleChunk = new String[CHUNK];
+        final String[] solutionChunk = new String[CHUNK];
+        int n = 0;
+        while (more && (n < CHUNK)) {
+          puzzleChunk[n] = in.next();
+          solutionChunk[n] = sol.next();
+          if ((puzzleChunk[n] == null) && (solutionChunk[n] == null)) {
+            more = false;
+          } else {
+            n++;
+          }
+        }
+        final List<Future<List<Mismatch>>> next =
+            submit(pool, threads, puzzleChunk, solutionChunk, n, lines);
+        lines += n;
+        if (checking != null) {
+          report(checking, mismatches);
+        }
+        checking = next.isEmpty() ? null : next;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return lines;
+  }
+
+  /**
+   * Checks a solution against its puzzle.
+   *
+   * @return {@code null} if the solution is valid, else the reason why not.
+   */
+  public static String check(final String puzzle, final String solution) {
+    if (puzzle == null) {
+      return "no puzzle for this solution";
+    }
+    if (solution == null) {
+      return "missing solution";
+    }
+    if ((puzzle.length() < 81) || (solution.length() < 81)) {
+      return "line shorter than 81 cells";
+    }
+    /* Used values of rows 0-8, columns 9-17 and boxes 18-26 */
+    final int[] units = new int[27];
+    for (int i = 0; i < 81; i++) {
+      final char given = puzzle.charAt(i);
+      final char value = solution.charAt(i);
+      if ((value < '1') || (value > '9')) {
+        return "cell " + i + " is not a value from 1 to 9";
+      }
+      if ((given != '.') && (given != '0') && (given != value)) {
+        return "given " + given + " at cell " + i + " changed to " + value;
+      }
+      final int bit = 1 << (value - '0');
+      final int row = i / 9;
+      final int col = i % 9;
+      units[row] |= bit;
+      units[9 + col] |= bit;
+      units[18 + ((3 * (row / 3)) + (col / 3))] |= bit;
+    }
+    /* Nine cells per unit hold all nine values only if none is repeated */
+    for (int u = 0; u < 27; u++) {
+      if (units[u] != Grid.ALL) {
+        return (u < 9 ? "row " + u : u < 18 ? "column " + (u - 9) : "box " + (u - 18))
+            + " repeats a value";
+      }
+    }
+    return null;
+  }
+
+  /** Splits a chunk between the threads; each returns its invalid lines. */
+  private static List<Future<List<Mismatch>>> submit(final ExecutorService pool, final int threads,
+      final String[] puzzles, final String[] solutions, final int n, final long firstLine) {
+    final List<Future<List<Mismatch>>> parts = new ArrayList<>();
+    final int per = Math.max(1, (n + threads - 1) / Math.max(1, threads));
+    for (int from = 0; from < n; from += per) {
+      final int start = from;
+      final int end = Math.min(n, from + per);
+      parts.add(pool.submit(() -> {
+        final List<Mismatch> invalid = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+          final String reason = check(puzzles[i], solutions[i]);
+          if (reason != null) {
+            invalid.add(new Mismatch(firstLine + i + 1, reason));
+          }
+        }
+        return invalid;
+      }));
+    }
+    return parts;
+  }
+
+  /** Hands the invalid lines of a checked chunk to {@code mismatches} in line order. */
+  private static void report(final List<Future<List<Mismatch>>> parts,
+      final Consumer<? super Mismatch> mismatches) throws IOException, InterruptedException {
+    for (final Future<List<Mismatch>> part : parts) {
+      try {
+        part.get().forEach(mismatches);
+      } catch (final ExecutionException e) {
+        throw new IOException("Verification failed", e.getCause());
+      }
+    }
+  }
+}
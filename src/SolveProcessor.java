@@ -0,0 +1,343 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Solves a stream of puzzles and publishes the solutions in input order, for embedding the
+ * solvers in a pipeline.
+ *
+ * <p>
+ * The processor subscribes to a {@link Flow.Publisher} of row-rasterized puzzles, or pulls them
+ * from an {@link Iterator} (see {@link #from}), and serves a single subscriber. At most
+ * {@code concurrency} puzzles are solved at once by any {@link BatchRunner.Engine}, e.g.
+ * {@link SudokuSolver#engine} for a heuristic id or {@code SAT.engine} with a {@link MiniSatPool}.
+ * Solutions may complete out of order and wait in a reorder buffer until all earlier ones are
+ * published. Puzzles are only requested from upstream while fewer than {@code 2 * concurrency}
+ * are received but not yet published, so a subscriber that stops requesting stops the source too
+ * and memory does not grow with the length of the stream. Cancelling the subscription cancels
+ * upstream and drops the puzzles not yet started; solves already running finish and their results
+ * are discarded. An engine that throws fails the stream once its puzzle is next to be published.
+ * An error from upstream, like its completion, is only passed on after the solutions of all
+ * puzzles received before it are published.
+ *
+ * <p>
+ * All signals to the subscriber, including {@code onSubscribe}, and all requests to upstream are
+ * made one at a time, by whichever thread last subscribed, requested, received a puzzle or
+ * finished a solve, so an iterator is read on those threads too.
+ */
+public class SolveProcessor implements Flow.Processor<String, SolveProcessor.Result> {
+
+  // ================================================================================
+  // Internal Classes
+  // ================================================================================
+  /** A puzzle with its solution. */
+  public static class Result {
+    public final String puzzle;
+    /** The row-rasterized solution, or {@code null} if the puzzle could not be solved. */
+    public final String solution;
+
+    public Result(final String ppuzzle, final String psolution) {
+      this.puzzle = ppuzzle;
+      this.solution = psolution;
+    }
+
+    @Override
+    public String toString() {
+      return this.puzzle + " -> " + this.solution;
+    }
+  }
+
+  /** A puzzle received from upstream, until it is published. */
+  private static class Slot {
+    final String puzzle;
+    volatile boolean done;
+    String solution;
+    Throwable error;
+
+    Slot(final String ppuzzle) {
+      this.puzzle = ppuzzle;
+    }
+  }
+
+  // ================================================================================
+  // Other Variables
+  // ================================================================================
+  private final BatchRunner.Engine engine;
+  private final int concurrency;
+  private final Executor executor;
+  /* Puzzles requested but not yet published */
+  private final int window;
+
+  private volatile Flow.Subscription upstream;
+  /* The subscriber, and the same once drain has called its onSubscribe */
+  private volatile Flow.Subscriber<? super Result> subscriber;
+  private volatile Flow.Subscriber<? super Result> downstream;
+  private final Flow.Subscription subscription = new Flow.Subscription() {
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        SolveProcessor.this.badRequest = new IllegalArgumentException("Non-positive request " + n);
+      } else {
+        SolveProcessor.this.demand.getAndUpdate(d -> (d + n) < 0 ? Long.MAX_VALUE : d + n);
+      }
+      SolveProcessor.this.drain();
+    }
+
+    @Override
+    public void cancel() {
+      SolveProcessor.this.cancelled = true;
+      SolveProcessor.this.drain();
+    }
+  };
+
+  /* Signals from upstream, the subscriber and the solves, handled by drain */
+  private final Queue<String> received = new ConcurrentLinkedQueue<>();
+  private final AtomicLong demand = new AtomicLong();
+  private final AtomicInteger running = new AtomicInteger();
+  private volatile boolean upstreamDone;
+  private volatile Throwable upstreamError;
+  private volatile boolean cancelled;
+  private volatile Throwable badRequest;
+
+  /* Only touched by the thread in drain */
+  private final AtomicInteger wip = new AtomicInteger();
+  private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+  private final ArrayDeque<Slot> waiting = new ArrayDeque<>();
+  private long requested;
+  private boolean terminated;
+
+  /** Solves on the common fork-join pool. */
+  public SolveProcessor(final BatchRunner.Engine pengine, final int pconcurrency) {
+    this(pengine, pconcurrency, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param pengine
+   *          The engine solving every puzzle, called from several threads at once
+   * @param pconcurrency
+   *          The number of puzzles solved at once
+   * @param pexecutor
+   *          The executor running the solves; engines that block, such as MINISAT, should get their
+   *          own
+   */
+  public SolveProcessor(final BatchRunner.Engine pengine, final int pconcurrency,
+      final Executor pexecutor) {
+    this.engine = pengine;
+    this.concurrency = Math.max(1, pconcurrency);
+    this.executor = pexecutor;
+    this.window = 2 * this.concurrency;
+  }
+
+  /** Returns a processor that pulls its puzzles from an iterator, only as fast as they are solved. */
+  public static SolveProcessor from(final Iterator<String> puzzles,
+      final BatchRunner.Engine engine, final int concurrency) {
+    final SolveProcessor processor = new SolveProcessor(engine, concurrency);
+    processor.onSubscribe(new Flow.Subscription() {
+      private boolean done;
+
+      @Override
+      public void request(final long n) {
+        try {
+          for (long i = 0; (i < n) && !this.done; i++) {
+            if (!puzzles.hasNext()) {
+              this.done = true;
+              processor.onComplete();
+            } else {
+              processor.onNext(puzzles.next());
+            }
+          }
+        } catch (final RuntimeException e) {
+          this.done = true;
+          processor.onError(e);
+        }
+      }
+
+      @Override
+      public void cancel() {
+        this.done = true;
+      }
+    });
+    return processor;
+  }
+
+  // ================================================================================
+  // Publisher
+  // ================================================================================
+  @Override
+  public void subscribe(final Flow.Subscriber<? super Result> psubscriber) {
+    final boolean rejected;
+    synchronized (this) {
+      rejected = this.subscriber != null;
+      if (!rejected) {
+        this.subscriber = psubscriber;
+      }
+    }
+    if (rejected) {
+      /* Rule 1.9: onSubscribe before any other signal, to the rejected subscriber only */
+      psubscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(final long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+      });
+      psubscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+      return;
+    }
+    /* onSubscribe is called by drain, so that no other signal can overlap it */
+    this.drain();
+  }
+
+  // ================================================================================
+  // Subscriber
+  // ================================================================================
+  @Override
+  public void onSubscribe(final Flow.Subscription subscription) {
+    synchronized (this) {
+      if (this.upstream != null) {
+        subscription.cancel();
+        return;
+      }
+      this.upstream = subscription;
+    }
+    this.drain();
+  }
+
+  @Override
+  public void onNext(final String puzzle) {
+    this.received.add(puzzle);
+    this.drain();
+  }
+
+  @Override
+  public void onError(final Throwable error) {
+    this.upstreamError = error;
+    this.drain();
+  }
+
+  @Override
+  public void onComplete() {
+    this.upstreamDone = true;
+    this.drain();
+  }
+
+  // ================================================================================
+  // Drain
+  // ================================================================================
+  /**
+   * Moves received puzzles to the solves, publishes finished solutions in order and requests more
+   * puzzles. Concurrent calls are merged: the thread already draining loops once more instead.
+   */
+  private void drain() {
+    if (this.wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      if (!this.terminated) {
+        this.step();
+      }
+      missed = this.wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private void step() {
+    if ((this.downstream == null) && (this.subscriber != null)) {
+      this.subscriber.onSubscribe(this.subscription);
+      this.downstream = this.subscriber;
+    }
+    final Flow.Subscriber<? super Result> subscriber = this.downstream;
+    if (this.cancelled) {
+      this.terminate();
+      return;
+    }
+    if (this.badRequest != null) {
+      /* Rule 3.9 of the reactive streams specification */
+      this.terminate();
+      subscriber.onError(this.badRequest);
+      return;
+    }
+    /* Received puzzles wait for a free solver */
+    String puzzle = null;
+    while ((puzzle = this.received.poll()) != null) {
+      final Slot slot = new Slot(puzzle);
+      this.slots.add(slot);
+      this.waiting.add(slot);
+      this.requested--;
+    }
+    while (!this.waiting.isEmpty() && (this.running.get() < this.concurrency)) {
+      this.start(this.waiting.poll());
+    }
+    if (subscriber == null) {
+      return;
+    }
+    /* Publish in input order */
+    while (!this.cancelled && !this.slots.isEmpty() && this.slots.peek().done
+        && (this.demand.get() > 0)) {
+      final Slot slot = this.slots.poll();
+      if (slot.error != null) {
+        this.terminate();
+        subscriber.onError(slot.error);
+        return;
+      }
+      this.demand.decrementAndGet();
+      subscriber.onNext(new Result(slot.puzzle, slot.solution));
+    }
+    /* Upstream ended: complete or fail once everything received before is published */
+    final boolean ended = this.upstreamDone || (this.upstreamError != null);
+    if (ended && this.slots.isEmpty() && this.received.isEmpty()) {
+      this.terminated = true;
+      if (this.upstreamError != null) {
+        subscriber.onError(this.upstreamError);
+      } else {
+        subscriber.onComplete();
+      }
+      return;
+    }
+    /* Keep the reorder buffer filled */
+    final Flow.Subscription subscription = this.upstream;
+    final long more = this.window - this.slots.size() - this.requested;
+    if ((subscription != null) && !ended && (more > 0)) {
+      this.requested += more;
+      subscription.request(more);
+    }
+  }
+
+  private void start(final Slot slot) {
+    this.running.incrementAndGet();
+    this.executor.execute(() -> {
+      try {
+        if (!this.cancelled) {
+          slot.solution = this.engine.solve(slot.puzzle);
+        }
+      } catch (final Exception e) {
+        slot.error = e;
+      } finally {
+        /* Publishes solution and error to the draining thread */
+        slot.done = true;
+        this.running.decrementAndGet();
+        this.drain();
+      }
+    });
+  }
+
+  /** Cancels upstream and drops everything not yet published. */
+  private void terminate() {
+    this.terminated = true;
+    final Flow.Subscription subscription = this.upstream;
+    if (subscription != null) {
+      subscription.cancel();
+    }
+    this.slots.clear();
+    this.waiting.clear();
+    this.received.clear();
+  }
+}
@@ -0,0 +1,92 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the solvers.
+ *
+ * <p>
+ * Record with {@code java -XX:StartFlightRecording=filename=solve.jfr ...} and enable the events
+ * with {@code jfc} settings or {@code jfr configure}. While recording is off, creating and
+ * committing an event is compiled away, so the events stay in production code.
+ */
+public final class SolverEvents {
+
+  /** Number of backtracks of one solver covered by a {@link BacktrackStorm} event. */
+  public static final int STORM_SIZE = 10_000;
+
+  /** Solving a single puzzle. */
+  @Name("sudoku.Solve")
+  @Label("Solve")
+  @Category("Sudoku")
+  @Description("Solving a single puzzle")
+  @StackTrace(false)
+  public static class Solve extends Event {
+    @Label("Engine")
+    public String engine;
+
+    @Label("Puzzle")
+    public String puzzle;
+
+    @Label("Solved")
+    public boolean solved;
+
+    @Label("Backtracks")
+    public long backTracks;
+  }
+
+  /** One run of AC3 after an assignment in {@link BSMACSudokuSolver}. */
+  @Name("sudoku.Propagation")
+  @Label("Arc Consistency")
+  @Category("Sudoku")
+  @Description("Maintaining arc consistency after an assignment")
+  @StackTrace(false)
+  public static class Propagation extends Event {
+    @Label("Variable")
+    public String variable;
+
+    @Label("Arcs Revised")
+    public int arcs;
+
+    @Label("Domains Reduced")
+    public int reductions;
+
+    @Label("Wipe-out")
+    @Description("Whether a domain became empty")
+    public boolean wipeOut;
+  }
+
+  /** A burst of {@link #STORM_SIZE} backtracks of one solver; its duration gives the rate. */
+  @Name("sudoku.BacktrackStorm")
+  @Label("Backtrack Storm")
+  @Category("Sudoku")
+  @Description("Time taken by a fixed number of backtracks of one solver")
+  @StackTrace(false)
+  public static class BacktrackStorm extends Event {
+    @Label("Solver")
+    public String solver;
+
+    @Label("Backtracks")
+    public long backTracks;
+  }
+
+  /** A phase of solving with MINISAT. */
+  @Name("sudoku.SatPhase")
+  @Label("SAT Phase")
+  @Category("Sudoku")
+  @Description("Encoding, running MINISAT or parsing its model")
+  @StackTrace(false)
+  public static class SatPhase extends Event {
+    @Label("Phase")
+    public String phase;
+
+    @Label("Puzzle")
+    public String puzzle;
+  }
+
+  private SolverEvents() {
+  }
+}
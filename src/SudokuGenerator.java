@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates puzzles with a unique solution.
+ *
+ * <p>
+ * A random complete grid is created, then givens are removed in random order, a symmetric group of
+ * cells at a time, as long as no solution differs from the grid in the removed cells, i.e. as long
+ * as the puzzle keeps a unique solution. Difficulty is the number of backtracks the bit mask search
+ * needs to solve the puzzle. With an upper bound, it is rated after every removal: a removal that
+ * would take it above the range is undone, and removing stops there once the puzzle is in range.
+ * Only a puzzle that stays below the range once no more givens can go is dropped for a new grid.
+ * Every generator owns one {@link BitMaskSudokuSolver} and a few arrays that are reused for all of
+ * its puzzles, so the inner loop allocates nothing.
+ */
+public class SudokuGenerator {
+
+  // ================================================================================
+  // Internal Classes
+  // ================================================================================
+  /** Cells that are removed together. */
+  public enum Symmetry {
+    NONE, ROTATIONAL, MIRROR;
+
+    /** Returns the cell paired with cell {@code i}. */
+    int partner(final int i) {
+      switch (this) {
+        case ROTATIONAL:
+          return 80 - i;
+        case MIRROR:
+          return ((i / 9) * 9) + (8 - (i % 9));
+        default:
+          return i;
+      }
+    }
+  }
+
+  /** Backtracks of the bit mask search, from and including, to and excluding. */
+  public enum Difficulty {
+    ANY(0, Long.MAX_VALUE), EASY(0, 1), MEDIUM(1, 20), HARD(20, Long.MAX_VALUE);
+
+    final long min;
+    final long max;
+
+    Difficulty(final long pmin, final long pmax) {
+      this.min = pmin;
+      this.max = pmax;
+    }
+  }
+
+  // ================================================================================
+  // Other Variables
+  // ================================================================================
+  private final Random random;
+  private final Symmetry symmetry;
+  private final Difficulty difficulty;
+
+  /* Reused for every puzzle */
+  private final BitMaskSudokuSolver solver = new BitMaskSudokuSolver();
+  private final int[] puzzle = new int[81];
+  private final int[] order = new int[81];
+  private final char[] chars = new char[81];
+
+  public SudokuGenerator(final long seed, final Symmetry psymmetry, final Difficulty pdifficulty) {
+    this.random = new Random(seed);
+    this.symmetry = psymmetry;
+    this.difficulty = pdifficulty;
+  }
+
+  // ================================================================================
+  // Main
+  // ================================================================================
+  /**
+   * Generates puzzles in parallel and writes them in the same format as the input files.
+   *
+   * @param args
+   *          Output File, Number of Puzzles, optionally Difficulty (ANY, EASY, MEDIUM, HARD),
+   *          Symmetry (NONE, ROTATIONAL, MIRROR), Threads and Seed
+   * @throws IOException
+   *           if the output file could not be written.
+   */
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.out.println("There should be at least two input arguments in the format:\n"
+          + "\t<output file> <count> [difficulty] [symmetry] [threads] [seed]");
+      return;
+    }
+    final long count = Long.parseLong(args[1]);
+    final Difficulty difficulty = args.length > 2 ? Difficulty.valueOf(args[2]) : Difficulty.ANY;
+    final Symmetry symmetry = args.length > 3 ? Symmetry.valueOf(args[3]) : Symmetry.NONE;
+    final int threads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+    final long seed = args.length > 5 ? Long.parseLong(args[5]) : System.nanoTime();
+
+    /* Time */
+    final long t0 = System.currentTimeMillis();
+
+    /* Generators hand their puzzles to this thread, which alone writes the output */
+    final BlockingQueue<String> puzzles = new ArrayBlockingQueue<>(1024);
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++) {
+      final SudokuGenerator generator = new SudokuGenerator(seed + t, symmetry, difficulty);
+      pool.execute(() -> {
+        try {
+          while (!Thread.currentThread().isInterrupted()) {
+            puzzles.put(generator.next());
+          }
+        } catch (final InterruptedException e) {
+          /* Enough puzzles */
+        }
+      });
+    }
+    try (PuzzleFile.Sink out = PuzzleFile.openSink(args[0])) {
+      for (long i = 0; i < count; i++) {
+        out.write(puzzles.take());
+      }
+    } finally {
+      pool.shutdownNow();
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    final double sec = (double) (System.currentTimeMillis() - t0) / 1000;
+    System.out.printf("Generated %d puzzle(s) in %.3f second(s), %,.0f per second.%n", count, sec,
+        count / sec);
+  }
+
+  // ================================================================================
+  // Generation
+  // ================================================================================
+  /** Returns the next row-rasterized puzzle, empty squares as '.'. */
+  public String next() {
+    while (!this.generate()) {
+      /* Too easy even with every removable given removed */
+    }
+    for (int i = 0; i < 81; i++) {
+      this.chars[i] = this.puzzle[i] == 0 ? '.' : (char) ('0' + this.puzzle[i]);
+    }
+    return new String(this.chars);
+  }
+
+  /**
+   * Leaves a puzzle with a unique solution and no more backtracks than the difficulty allows in
+   * {@link #puzzle}.
+   *
+   * @return whether it has at least as many backtracks as the difficulty asks for.
+   */
+  private boolean generate() {
+    /* Random complete grid */
+    this.solver.fill(this.random);
+    this.solver.values(this.puzzle);
+    /* Random order of cells */
+    for (int i = 0; i < 81; i++) {
+      final int j = this.random.nextInt(i + 1);
+      this.order[i] = this.order[j];
+      this.order[j] = i;
+    }
+    /* Remove givens as long as the solution stays unique and the puzzle not too hard */
+    final boolean bounded = this.difficulty.max != Long.MAX_VALUE;
+    boolean inRange = this.difficulty.min == 0;
+    for (int k = 0; k < 81; k++) {
+      final int i = this.order[k];
+      final int j = this.symmetry.partner(i);
+      if ((this.puzzle[i] == 0) || (j < i)) {
+        /* Already removed, or removed with its partner */
+        continue;
+      }
+      final int vi = this.puzzle[i];
+      final int vj = this.puzzle[j];
+      this.puzzle[i] = 0;
+      this.puzzle[j] = 0;
+      /* Unique if no solution differs from the grid in the removed cells */
+      this.solver.load(this.puzzle);
+      if (this.solver.hasSolutionWithout(i, vi)
+          || ((j != i) && this.solver.hasSolutionWithout(j, vj))) {
+        this.puzzle[i] = vi;
+        this.puzzle[j] = vj;
+        continue;
+      }
+      if (bounded) {
+        final long backTracks = this.rate();
+        if (backTracks >= this.difficulty.max) {
+          this.puzzle[i] = vi;
+          this.puzzle[j] = vj;
+          if (inRange) {
+            break;
+          }
+          continue;
+        }
+        inRange = backTracks >= this.difficulty.min;
+      }
+    }
+    return inRange || (!bounded && (this.rate() >= this.difficulty.min));
+  }
+
+  /** Returns the backtracks of the bit mask search to solve {@link #puzzle}. */
+  private long rate() {
+    final long before = this.solver.backTracks;
+    this.solver.load(this.puzzle);
+    this.solver.countSolutions(1);
+    return this.solver.backTracks - before;
+  }
+}
@@ -0,0 +1,326 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stateful solver for interactive editing: digits are placed and removed one at a time, and the
+ * questions of a front end are answered from state kept up to date by every edit.
+ *
+ * <p>
+ * Every cell has a domain, as in {@link BSMACSudokuSolver}, kept as a bit mask: the value of a
+ * filled cell, else the candidates of {@link #candidates} reduced by arc consistency, i.e. a value
+ * is removed from a cell once a related cell can only take that value. Placing a digit propagates
+ * from that cell only and records every domain it reduces on a trail, so removing the most recent
+ * digit restores the domains from the trail. Removing an older digit undoes the digits placed after
+ * it and places them again, and only removing a digit of the initial puzzle recomputes all domains.
+ * The last solution found is kept and reused as long as it agrees with every filled cell.
+ */
+public class SudokuSession extends SudokuSolver {
+
+  // ================================================================================
+  // Internal Classes
+  // ================================================================================
+  /** A value that follows from the current domains. */
+  public static class Hint {
+    public final int row;
+    public final int col;
+    public final int value;
+    /** "naked single" or "hidden single in row/column/box n". */
+    public final String reason;
+
+    public Hint(final int prow, final int pcol, final int pvalue, final String preason) {
+      this.row = prow;
+      this.col = pcol;
+      this.value = pvalue;
+      this.reason = preason;
+    }
+
+    @Override
+    public String toString() {
+      return "(" + this.row + ", " + this.col + ") = " + this.value + ", " + this.reason;
+    }
+  }
+
+  // ================================================================================
+  // Other Variables
+  // ================================================================================
+  private final Variable[] variables = new Variable[81];
+  private final int[] domains = new int[81];
+
+  /* Trail of reduced domains: cell and previous domain */
+  private int[] trailCells = new int[256];
+  private int[] trailDomains = new int[256];
+  private int trailSize;
+
+  /* Digits placed since the last full propagation, with their start on the trail */
+  private final int[] placedCells = new int[81];
+  private final int[] placedStarts = new int[81];
+  private int placedCount;
+
+  /* Work list of cells whose domain became a single value */
+  private final int[] queue = new int[81 * 20];
+
+  /* Last solution found, reused while it agrees with every filled cell */
+  private final BitMaskSudokuSolver solver = new BitMaskSudokuSolver();
+  private final int[] solution = new int[81];
+  private boolean hasSolution;
+
+  /** Starts a session from a row-rasterized puzzle, empty squares as '.'. */
+  public SudokuSession(final String line) {
+    super(line);
+    for (int i = 0; i < 81; i++) {
+      this.variables[i] = new Variable(i / 9, i % 9);
+    }
+    this.propagateAll();
+  }
+
+  // ================================================================================
+  // Edits
+  // ================================================================================
+  /** Places a value, replacing the value of the cell if it has one. */
+  public void place(final int row, final int col, final int value) {
+    if ((value < 1) || (value > 9)) {
+      throw new IllegalArgumentException("Value " + value + " is not from 1 to 9");
+    }
+    final int cell = (row * 9) + col;
+    if (this.getValue(row, col) != 0) {
+      this.remove(row, col);
+    }
+    this.unassignedVariables.remove(this.variables[cell]);
+    this.push(cell, value);
+  }
+
+  /** Removes the value of a cell, if it has one. */
+  public void remove(final int row, final int col) {
+    final int cell = (row * 9) + col;
+    if (this.getValue(row, col) == 0) {
+      return;
+    }
+    this.unassignedVariables.add(this.variables[cell]);
+    /* Find the digit among the placed ones */
+    int k = this.placedCount - 1;
+    while ((k >= 0) && (this.placedCells[k] != cell)) {
+      k--;
+    }
+    if (k < 0) {
+      /* A digit of the initial puzzle, propagate everything again */
+      this.setValue(this.variables[cell], 0);
+      this.propagateAll();
+      return;
+    }
+    /* Undo the digits placed from k on, then place the later ones again */
+    final int[] later = new int[this.placedCount - k - 1];
+    final int[] values = new int[later.length];
+    for (int j = k + 1; j < this.placedCount; j++) {
+      later[j - k - 1] = this.placedCells[j];
+      values[j - k - 1] = this.grid(this.placedCells[j]);
+    }
+    for (int j = this.placedCount - 1; j >= k; j--) {
+      this.pop();
+    }
+    for (int j = 0; j < later.length; j++) {
+      this.push(later[j], values[j]);
+    }
+  }
+
+  // ================================================================================
+  // Queries
+  // ================================================================================
+  /** Returns whether the current grid can still be completed. */
+  public boolean isSolvable() {
+    return this.solve();
+  }
+
+  /** Finds a solution of the current grid, reusing the last one while it still fits. */
+  @Override
+  public boolean solve() {
+    if (!this.conflicts().isEmpty()) {
+      return false;
+    }
+    if (this.hasSolution && this.agrees()) {
+      return true;
+    }
+    for (int i = 0; i < 81; i++) {
+      if (this.domains[i] == 0) {
+        return false;
+      }
+    }
+    for (int i = 0; i < 81; i++) {
+      this.solution[i] = this.grid(i);
+    }
+    this.solver.load(this.solution);
+    this.hasSolution = this.solver.solve();
+    if (this.hasSolution) {
+      this.solver.values(this.solution);
+    }
+    return this.hasSolution;
+  }
+
+  /** Returns the last solution found, row-rasterized, or {@code null} if there is none. */
+  public String lastSolution() {
+    if (!this.hasSolution || !this.agrees()) {
+      return null;
+    }
+    final char[] chars = new char[81];
+    for (int i = 0; i < 81; i++) {
+      chars[i] = (char) ('0' + this.solution[i]);
+    }
+    return new String(chars);
+  }
+
+  /** Returns the filled cells whose value is repeated in their row, column or box. */
+  public List<Variable> conflicts() {
+    final List<Variable> conflicts = new ArrayList<>();
+    for (int i = 0; i < 81; i++) {
+      final int v = this.grid(i);
+      if ((v != 0) && ((this.candidates(this.variables[i]) & (1 << v)) == 0)) {
+        conflicts.add(this.variables[i]);
+      }
+    }
+    return conflicts;
+  }
+
+  /**
+   * Returns a value that follows from the domains: a cell with a single value left, else a value
+   * with a single cell left in a row, column or box; {@code null} if there is neither.
+   */
+  public Hint hint() {
+    for (int i = 0; i < 81; i++) {
+      final int d = this.domains[i];
+      if ((this.grid(i) == 0) && (d != 0) && ((d & (d - 1)) == 0)) {
+        return new Hint(i / 9, i % 9, Integer.numberOfTrailingZeros(d), "naked single");
+      }
+    }
+    for (int u = 0; u < 27; u++) {
+      /* Values with at least one and with at least two empty cells left */
+      int once = 0;
+      int twice = 0;
+      int placed = 0;
+      for (final int i : Grid.UNITS[u]) {
+        if (this.grid(i) == 0) {
+          twice |= once & this.domains[i];
+          once |= this.domains[i];
+        } else {
+          placed |= 1 << this.grid(i);
+        }
+      }
+      final int single = once & ~twice & ~placed & Grid.ALL;
+      if (single != 0) {
+        final int v = Integer.numberOfTrailingZeros(single);
+        for (final int i : Grid.UNITS[u]) {
+          if ((this.grid(i) == 0) && ((this.domains[i] & (1 << v)) != 0)) {
+            final String unit =
+                u < 9 ? "row " + u : u < 18 ? "column " + (u - 9) : "box " + (u - 18);
+            return new Hint(i / 9, i % 9, v, "hidden single in " + unit);
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /** Returns the domain of a cell as a bit mask, bit v set for value v. */
+  public int domain(final int row, final int col) {
+    return this.domains[(row * 9) + col];
+  }
+
+  @Override
+  public boolean isComplete() {
+    return this.unassignedVariables.isEmpty() && this.conflicts().isEmpty();
+  }
+
+  // ================================================================================
+  // Propagation
+  // ================================================================================
+  /** Places a digit and propagates from it, recording the reduced domains. */
+  private void push(final int cell, final int value) {
+    this.placedCells[this.placedCount] = cell;
+    this.placedStarts[this.placedCount] = this.trailSize;
+    this.placedCount++;
+    this.setValue(this.variables[cell], value);
+    this.reduce(cell, 1 << value, true);
+    this.queue[0] = cell;
+    this.propagate(1, true);
+  }
+
+  /** Undoes the most recently placed digit. */
+  private void pop() {
+    this.placedCount--;
+    final int start = this.placedStarts[this.placedCount];
+    while (this.trailSize > start) {
+      this.trailSize--;
+      this.domains[this.trailCells[this.trailSize]] = this.trailDomains[this.trailSize];
+    }
+    this.setValue(this.variables[this.placedCells[this.placedCount]], 0);
+  }
+
+  /** Computes all domains from the grid; placed digits become part of the initial puzzle. */
+  private void propagateAll() {
+    this.placedCount = 0;
+    this.trailSize = 0;
+    int n = 0;
+    for (int i = 0; i < 81; i++) {
+      final int v = this.grid(i);
+      this.domains[i] = v != 0 ? 1 << v : this.candidates(this.variables[i]);
+      if ((this.domains[i] & (this.domains[i] - 1)) == 0) {
+        this.queue[n++] = i;
+      }
+    }
+    this.propagate(n, false);
+  }
+
+  /**
+   * Removes the single value of every queued cell from the domains of its related empty cells,
+   * queueing the cells that are left with a single value in turn.
+   */
+  private void propagate(final int queued, final boolean record) {
+    int head = 0;
+    int tail = queued;
+    while (head < tail) {
+      final int cell = this.queue[head++];
+      final int bit = this.domains[cell];
+      if (bit == 0) {
+        continue;
+      }
+      for (final int peer : Grid.PEERS[cell]) {
+        final int d = this.domains[peer];
+        /* Filled cells keep their value, a repeated value is a conflict instead */
+        if (((d & bit) != 0) && (this.grid(peer) == 0)) {
+          this.reduce(peer, d & ~bit, record);
+          /* Left with one value, or none */
+          if (((d & ~bit) & ((d & ~bit) - 1)) == 0) {
+            this.queue[tail++] = peer;
+          }
+        }
+      }
+    }
+  }
+
+  private void reduce(final int cell, final int domain, final boolean record) {
+    if (record) {
+      if (this.trailSize == this.trailCells.length) {
+        this.trailCells = Arrays.copyOf(this.trailCells, this.trailSize * 2);
+        this.trailDomains = Arrays.copyOf(this.trailDomains, this.trailSize * 2);
+      }
+      this.trailCells[this.trailSize] = cell;
+      this.trailDomains[this.trailSize] = this.domains[cell];
+      this.trailSize++;
+    }
+    this.domains[cell] = domain;
+  }
+
+  /** Returns whether the last solution agrees with every filled cell. */
+  private boolean agrees() {
+    for (int i = 0; i < 81; i++) {
+      final int v = this.grid(i);
+      if ((v != 0) && (v != this.solution[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int grid(final int cell) {
+    return this.getValue(cell / 9, cell % 9);
+  }
+}
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link LockstepPropagator} on the {@code jdk.incubator.vector} API: every step of a sweep handles
+ * one vector of lanes, as many as the preferred species of the hardware holds (16 with AVX-512, 8
+ * with AVX2), with a few vector operations per cell or unit instead of a loop over the lanes.
+ *
+ * <p>
+ * Optional: it is compiled apart from the other sources and only loaded by
+ * {@link LockstepPropagator#create}, both with {@code --add-modules jdk.incubator.vector}.
+ */
+final class VectorLockstepPropagator extends LockstepPropagator {
+
+  // ================================================================================
+  // Static Variables
+  // ================================================================================
+  private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+  private static final IntVector ZERO = IntVector.zero(SPECIES);
+  private static final IntVector ALL = IntVector.broadcast(SPECIES, Grid.ALL);
+
+  /** Rounds the number of lanes up to whole vectors. */
+  VectorLockstepPropagator(final int planes) {
+    super(SPECIES.loopBound((planes + SPECIES.length()) - 1));
+  }
+
+  // ================================================================================
+  // Propagation
+  // ================================================================================
+  @Override
+  boolean sweep() {
+    final int n = this.lanes;
+    final int s = SPECIES.length();
+    Arrays.fill(this.used, 0);
+    /* Values used in every unit */
+    for (int i = 0; i < 81; i++) {
+      final int c = i * n;
+      final int r = Grid.ROW[i] * n;
+      final int k = (9 + Grid.COL[i]) * n;
+      final int b = (18 + Grid.BOX[i]) * n;
+      for (int l = 0; l < n; l += s) {
+        final IntVector bit = IntVector.fromArray(SPECIES, this.cells, c + l);
+        final IntVector row = IntVector.fromArray(SPECIES, this.used, r + l);
+        final IntVector col = IntVector.fromArray(SPECIES, this.used, k + l);
+        final IntVector box = IntVector.fromArray(SPECIES, this.used, b + l);
+        IntVector.fromArray(SPECIES, this.dead, l).or(row.or(col).or(box).and(bit))
+            .intoArray(this.dead, l);
+        row.or(bit).intoArray(this.used, r + l);
+        col.or(bit).intoArray(this.used, k + l);
+        box.or(bit).intoArray(this.used, b + l);
+      }
+    }
+    /* Candidates of empty cells */
+    for (int i = 0; i < 81; i++) {
+      final int c = i * n;
+      final int r = Grid.ROW[i] * n;
+      final int k = (9 + Grid.COL[i]) * n;
+      final int b = (18 + Grid.BOX[i]) * n;
+      for (int l = 0; l < n; l += s) {
+        final VectorMask<Integer> empty =
+            IntVector.fromArray(SPECIES, this.cells, c + l).compare(VectorOperators.EQ, 0);
+        final IntVector used = IntVector.fromArray(SPECIES, this.used, r + l)
+            .or(IntVector.fromArray(SPECIES, this.used, k + l))
+            .or(IntVector.fromArray(SPECIES, this.used, b + l));
+        final IntVector cand = ZERO.blend(ALL.lanewise(VectorOperators.AND_NOT, used), empty);
+        cand.intoArray(this.candidates, c + l);
+        IntVector.fromArray(SPECIES, this.dead, l)
+            .lanewise(VectorOperators.OR, 1, empty.and(cand.compare(VectorOperators.EQ, 0)))
+            .intoArray(this.dead, l);
+      }
+    }
+    /* Values left for a single cell of every unit */
+    for (int u = 0; u < 27; u++) {
+      final int[] unit = Grid.UNITS[u];
+      final int o = u * n;
+      for (int l = 0; l < n; l += s) {
+        IntVector once = ZERO;
+        IntVector twice = ZERO;
+        for (final int i : unit) {
+          final IntVector cand = IntVector.fromArray(SPECIES, this.candidates, (i * n) + l);
+          twice = twice.or(once.and(cand));
+          once = once.or(cand);
+        }
+        once.lanewise(VectorOperators.AND_NOT, twice).intoArray(this.hidden, o + l);
+        /* A value neither used nor left in a unit */
+        final IntVector used = IntVector.fromArray(SPECIES, this.used, o + l);
+        IntVector.fromArray(SPECIES, this.dead, l)
+            .or(ALL.lanewise(VectorOperators.AND_NOT, once.or(used))).intoArray(this.dead, l);
+      }
+    }
+    /* Assign singles */
+    IntVector changed = ZERO;
+    for (int i = 0; i < 81; i++) {
+      final int c = i * n;
+      final int r = Grid.ROW[i] * n;
+      final int k = (9 + Grid.COL[i]) * n;
+      final int b = (18 + Grid.BOX[i]) * n;
+      for (int l = 0; l < n; l += s) {
+        final IntVector cand = IntVector.fromArray(SPECIES, this.candidates, c + l);
+        /* Two values that are each left only here kill the lane */
+        final IntVector single = cand.and(IntVector.fromArray(SPECIES, this.hidden, r + l)
+            .or(IntVector.fromArray(SPECIES, this.hidden, k + l))
+            .or(IntVector.fromArray(SPECIES, this.hidden, b + l)));
+        IntVector.fromArray(SPECIES, this.dead, l).or(single.and(single.sub(1)))
+            .intoArray(this.dead, l);
+        /* The candidates if there is at most one, else the hidden single */
+        final IntVector assign =
+            single.blend(cand, cand.and(cand.sub(1)).compare(VectorOperators.EQ, 0));
+        IntVector.fromArray(SPECIES, this.cells, c + l).or(assign).intoArray(this.cells, c + l);
+        changed = changed.or(assign);
+      }
+    }
+    return changed.reduceLanes(VectorOperators.OR) != 0;
+  }
+}